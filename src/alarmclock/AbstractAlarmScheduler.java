@@ -0,0 +1,325 @@
+package alarmclock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Common part of alarm schedulers: the thread which sleeps until the next
+ * wakeup and the listeners. Subclasses provide the queue of pending alarms,
+ * all of its methods are called while holding the monitor of the scheduler.
+ * 
+ * The wall clock is tracked against System.nanoTime() on every wakeup. When
+ * they disagree (suspend / resume, NTP step, manual change of time), pending
+ * deadlines are rebased in one pass and ClockJumpListeners are notified.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public abstract class AbstractAlarmScheduler implements IAlarmScheduler {
+	/**
+	 * Subscribers notified when an alarm goes off
+	 */
+	private final List<AlarmListener> listeners = new CopyOnWriteArrayList<AlarmListener>();
+
+	/**
+	 * Difference between wall and monotonic clock which is reported as a jump
+	 */
+	private static final long JUMP_THRESHOLD = 1000;
+
+	/**
+	 * The longest sleep, it bounds the delay of detecting a suspend
+	 */
+	private static final long MAX_WAIT = 60000;
+
+	/**
+	 * Subscribers notified when the wall clock jumps
+	 */
+	private final List<ClockJumpListener> jumpListeners = new CopyOnWriteArrayList<ClockJumpListener>();
+
+	/**
+	 * Wall and monotonic clock measured on the last wakeup
+	 */
+	private long lastWallTime = 0;
+	private long lastNanoTime = 0;
+
+	/**
+	 * Counter of the thread wakeups or null
+	 */
+	private WakeupCounter wakeupCounter = null;
+
+	/**
+	 * Thread which waits for the deadlines
+	 */
+	private Thread thread = null;
+
+	/**
+	 * False after shutdown() has been called
+	 */
+	private boolean running = false;
+
+	/**
+	 * Adds the alarm with its deadline already set to the queue
+	 *
+	 * @param alarm
+	 */
+	protected abstract void enqueue(Alarm alarm);
+
+	/**
+	 * Removes the alarm from the queue
+	 *
+	 * @param  alarm
+	 * @return true when the alarm was queued
+	 */
+	protected abstract boolean dequeue(Alarm alarm);
+
+	/**
+	 * Removes and returns an alarm whose deadline has been reached
+	 *
+	 * @param  now milliseconds since the epoch
+	 * @return due alarm or null
+	 */
+	protected abstract Alarm pollDue(long now);
+
+	/**
+	 * Removes all alarms from the queue and moves the internal time reference
+	 * of the queue to the specified instant
+	 *
+	 * @param alarms list to add removed alarms to
+	 * @param now    milliseconds since the epoch
+	 */
+	protected abstract void drainTo(List<Alarm> alarms, long now);
+
+	/**
+	 * Returns the instant when the scheduler thread has to wake up
+	 *
+	 * @param  now milliseconds since the epoch
+	 * @return milliseconds since the epoch or Long.MAX_VALUE when there is nothing to wait for
+	 */
+	protected abstract long nextWakeup(long now);
+
+	public void addAlarmListener(AlarmListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener cannot be null.");
+		}
+
+		listeners.add(listener);
+	}
+
+	public void removeAlarmListener(AlarmListener listener) {
+		listeners.remove(listener);
+	}
+
+	public void addClockJumpListener(ClockJumpListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener cannot be null.");
+		}
+
+		jumpListeners.add(listener);
+	}
+
+	public void removeClockJumpListener(ClockJumpListener listener) {
+		jumpListeners.remove(listener);
+	}
+
+	public synchronized void schedule(Alarm alarm, long deadline) {
+		if (alarm == null) {
+			throw new IllegalArgumentException("Alarm cannot be null.");
+		}
+
+		dequeue(alarm);
+		alarm.setDeadline(deadline);
+		enqueue(alarm);
+		notifyAll();
+	}
+
+	public synchronized boolean cancel(Alarm alarm) {
+		final boolean removed = dequeue(alarm);
+		if (removed) {
+			alarm.setDeadline(-1);
+			notifyAll();
+		}
+
+		return removed;
+	}
+
+	public synchronized void setWakeupCounter(WakeupCounter wakeupCounter) {
+		this.wakeupCounter = wakeupCounter;
+	}
+
+	public synchronized void start() {
+		if (thread != null) {
+			throw new IllegalStateException("Scheduler already started.");
+		}
+
+		running = true;
+		thread = new Thread(getClass().getSimpleName()) {
+			public void run() {
+				runLoop();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void shutdown() {
+		running = false;
+		notifyAll();
+	}
+
+	/**
+	 * Waits for the next wakeup, rebases deadlines after a clock jump
+	 * and notifies listeners about due alarms
+	 */
+	private void runLoop() {
+		while (true) {
+			Alarm due = null;
+			long deadline = 0;
+			boolean missed = false;
+			long jump = 0;
+			long now;
+			synchronized (this) {
+				while (true) {
+					if (!running) {
+						return;
+					}
+
+					now = System.currentTimeMillis();
+					jump = measureJump(now);
+					if (jump != 0) {
+						rebase(now, jump);
+						break;
+					}
+
+					due = pollDue(now);
+					if (due != null) {
+						deadline = due.getDeadline();
+						missed = !due.shouldCatchUp(now - deadline);
+						reschedule(due, Math.max(deadline, now));
+						break;
+					}
+
+					final long wakeup = nextWakeup(now);
+					try {
+						if (wakeup > now) {
+							wait(Math.min(wakeup - now, MAX_WAIT));
+						}
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					if (wakeupCounter != null) {
+						wakeupCounter.wakeup();
+					}
+				}
+			}
+
+			if (jump != 0) {
+				fireClockJump(jump, now);
+			}
+
+			if (due != null) {
+				fireAlarm(due, deadline, missed);
+			}
+		}
+	}
+
+	/**
+	 * Compares the wall clock elapsed since the last wakeup with the monotonic clock
+	 *
+	 * @param  now milliseconds since the epoch
+	 * @return size of the jump in milliseconds or 0 when the clocks agree
+	 */
+	private long measureJump(long now) {
+		final long nanoTime = System.nanoTime();
+		long jump = 0;
+		if (lastNanoTime != 0) {
+			jump = now - (lastWallTime + (nanoTime - lastNanoTime) / 1000000);
+			if (Math.abs(jump) < JUMP_THRESHOLD) {
+				jump = 0;
+			}
+		}
+
+		lastWallTime = now;
+		lastNanoTime = nanoTime;
+		return jump;
+	}
+
+	/**
+	 * Requeues all pending alarms in one pass. After a backward jump, recurring alarms
+	 * are moved to their nearest occurrence, deadlines passed by a forward jump are
+	 * left as they are, so those alarms are handled as missed ones.
+	 *
+	 * @param now  milliseconds since the epoch
+	 * @param jump size of the jump
+	 */
+	private void rebase(long now, long jump) {
+		final List<Alarm> alarms = new ArrayList<Alarm>(size());
+		drainTo(alarms, now);
+		for (Alarm alarm : alarms) {
+			if (jump < 0 && alarm.getRule() != null) {
+				final long next = alarm.nextDeadline(now);
+				if (next >= 0 && next < alarm.getDeadline()) {
+					alarm.setDeadline(next);
+				}
+			}
+
+			enqueue(alarm);
+		}
+	}
+
+	/**
+	 * Queues the next occurrence of a recurring alarm which has just fired
+	 *
+	 * @param alarm
+	 * @param after the fired deadline or the current time when it was late, so
+	 *              several missed occurrences collapse into one
+	 */
+	private void reschedule(Alarm alarm, long after) {
+		final long next = alarm.nextDeadline(after);
+		if (next < 0) {
+			alarm.setDeadline(-1);
+			return;
+		}
+
+		alarm.setDeadline(next);
+		enqueue(alarm);
+	}
+
+	/**
+	 * Notifies clock jump listeners
+	 *
+	 * @param jump
+	 * @param now
+	 */
+	private void fireClockJump(long jump, long now) {
+		for (ClockJumpListener listener : jumpListeners) {
+			try {
+				listener.clockJumped(jump, now);
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Notifies all listeners, a failing listener doesn't stop the scheduler
+	 *
+	 * @param alarm
+	 * @param deadline
+	 * @param missed   true when the catch-up policy skipped the alarm
+	 */
+	private void fireAlarm(Alarm alarm, long deadline, boolean missed) {
+		for (AlarmListener listener : listeners) {
+			try {
+				if (missed) {
+					listener.alarmMissed(alarm, deadline);
+				} else {
+					listener.alarmFired(alarm, deadline);
+				}
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
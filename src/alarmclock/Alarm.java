@@ -0,0 +1,184 @@
+package alarmclock;
+
+import java.util.TimeZone;
+
+/**
+ * Single alarm which is fired by AlarmScheduler at an absolute point in time
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class Alarm {
+	/**
+	 * Canonical file path to MP3 which plays when this alarm goes off
+	 */
+	private final String filename;
+
+	/**
+	 * Recurrence of the alarm and the zone it's evaluated in, rule is null for one-shot alarms
+	 */
+	private final RecurrenceRule rule;
+	private final TimeZone timezone;
+
+	/**
+	 * How long after its deadline the alarm still counts as being on time
+	 */
+	public static final long LATE_TOLERANCE = 2000;
+
+	/**
+	 * What happens when the deadline has been missed and the grace window for CatchUpPolicy.GRACE
+	 */
+	private CatchUpPolicy catchUpPolicy = CatchUpPolicy.FIRE;
+	private long graceWindow = 0;
+
+	/**
+	 * Deadline in milliseconds since the epoch, -1 when the alarm is not scheduled
+	 */
+	private long deadline = -1;
+
+	/**
+	 * Links used by TimingWheelScheduler, wheelBucket is -1 when the alarm isn't in the wheel
+	 */
+	Alarm wheelPrev = null;
+	Alarm wheelNext = null;
+	int wheelBucket = -1;
+
+	/**
+	 * Creates a one-shot alarm which plays the specified file
+	 *
+	 * @param filename (should be canonical)
+	 */
+	public Alarm(String filename) {
+		this(filename, null, null);
+	}
+
+	/**
+	 * Creates a recurring alarm which plays the specified file
+	 *
+	 * @param filename (should be canonical)
+	 * @param rule     recurrence of the alarm or null for one-shot alarm
+	 * @param timezone zone the rule is evaluated in, null for the default one
+	 */
+	public Alarm(String filename, RecurrenceRule rule, TimeZone timezone) {
+		this.filename = filename;
+		this.rule = rule;
+		this.timezone = (timezone == null) ? TimeZone.getDefault() : timezone;
+	}
+
+	/**
+	 * Returns the name of MP3 to play
+	 *
+	 * @return filename (should be canonical)
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Returns the recurrence of the alarm
+	 *
+	 * @return rule or null for one-shot alarm
+	 */
+	public RecurrenceRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Returns the zone the recurrence is evaluated in
+	 *
+	 * @return timezone
+	 */
+	public TimeZone getTimezone() {
+		return timezone;
+	}
+
+	/**
+	 * Sets what happens when the deadline has been missed
+	 *
+	 * @param policy
+	 * @param graceWindow milliseconds, used by CatchUpPolicy.GRACE only
+	 */
+	public void setCatchUpPolicy(CatchUpPolicy policy, long graceWindow) {
+		if (policy == null) {
+			throw new IllegalArgumentException("Policy cannot be null.");
+		}
+
+		this.catchUpPolicy = policy;
+		this.graceWindow = graceWindow;
+	}
+
+	/**
+	 * Returns what happens when the deadline has been missed
+	 *
+	 * @return policy
+	 */
+	public CatchUpPolicy getCatchUpPolicy() {
+		return catchUpPolicy;
+	}
+
+	/**
+	 * Decides whether the alarm goes off when it's late
+	 *
+	 * @param  lateness milliseconds elapsed since the deadline
+	 * @return true when the alarm has to go off, false when it's skipped
+	 */
+	public boolean shouldCatchUp(long lateness) {
+		if (lateness <= LATE_TOLERANCE) {
+			return true;
+		}
+
+		switch (catchUpPolicy) {
+			case GRACE:
+				return lateness <= graceWindow;
+			case SKIP:
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Decides whether the alarm resolves to the same deadlines as an alarm built
+	 * from the specified values, so it doesn't have to be rescheduled
+	 *
+	 * @param  filename
+	 * @param  rule
+	 * @param  timezone
+	 * @return true when nothing differs
+	 */
+	public boolean isEquivalent(String filename, RecurrenceRule rule, TimeZone timezone) {
+		return this.filename.equals(filename) &&
+			(this.rule == null ? rule == null : rule != null && this.rule.getExpression().equals(rule.getExpression()) &&
+				this.rule.isRepeating() == rule.isRepeating()) &&
+			this.timezone.getID().equals(timezone.getID()) && this.timezone.hasSameRules(timezone);
+	}
+
+	/**
+	 * Returns the next occurrence of a recurring alarm. The scheduler asks for it
+	 * only when the current occurrence fires.
+	 *
+	 * @param  after milliseconds since the epoch
+	 * @return milliseconds since the epoch or -1 when the alarm doesn't recur
+	 */
+	public long nextDeadline(long after) {
+		return (rule == null) ? -1 : rule.nextOccurrence(after, timezone);
+	}
+
+	/**
+	 * Returns the instant when the alarm goes off
+	 *
+	 * @return deadline in milliseconds since the epoch or -1 when not scheduled
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Sets the deadline, it's called by the scheduler only while the alarm is not queued
+	 *
+	 * @param deadline in milliseconds since the epoch
+	 */
+	void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+}
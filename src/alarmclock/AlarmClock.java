@@ -3,9 +3,13 @@ package alarmclock;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.ShellAdapter;
@@ -37,6 +41,21 @@ public class AlarmClock {
 	 */
 	public final String CONFIGURATION_FILE = "configuration.xml";
 	
+	/**
+	 * Name of file with the instant the alarm has fired last time
+	 */
+	public final String STATE_FILE = "alarmstate.xml";
+	
+	/**
+	 * Name of file with recently used MP3s
+	 */
+	public final String MRU_FILE = "mru.xml";
+	
+	/**
+	 * Directory of the cache of decoded sounds
+	 */
+	public final String PCM_CACHE_DIRECTORY = "pcmcache";
+	
 	/**
 	 * Default button width and height
 	 */
@@ -65,16 +84,60 @@ public class AlarmClock {
 	Mp3Player player = new Mp3Player();
 	
 	/**
-	 * Thread which outputs current time to lbl1 and invokes alarm
+	 * Cache of decoded sounds shared by the alarm and previews, null when disabled
 	 */
-	private Thread updateTime = null;
+	private PcmCache pcmCache = null;
+	
+	/**
+	 * Dry runs of the alarm sound ahead of the alarm
+	 */
+	private final SoundValidator soundValidator = new SoundValidator();
+	
+	/**
+	 * Tick source which outputs current time to lbl1 every second
+	 */
+	private TickSource tickSource = null;
 	private Runnable performTimeUpdating = null;
 	
 	/**
-	 * These variables are used to handle start / stop actions of PlayMP3
+	 * The last tick and the formatter used to output it without allocations. Ticks are
+	 * posted to the UI thread through a single slot, repaintPending is true while
+	 * performTimeUpdating waits in the queue, so ticks coming meanwhile only update
+	 * tickTime and the repaint shows the latest one.
+	 */
+	private volatile long tickTime = 0;
+	private final AtomicBoolean repaintPending = new AtomicBoolean(false);
+	private TimeFormatter timeFormatter = null;
+	
+	/**
+	 * Wakeups of the tick and scheduler threads while the shell is visible and hidden
+	 */
+	private final WakeupCounter wakeupCounter = new WakeupCounter();
+	
+	/**
+	 * Scheduler which invokes the alarm and the alarm currently queued in it. The alarm
+	 * is replaced under the lock of AlarmClock, the scheduler thread reads it without it.
+	 */
+	private IAlarmScheduler scheduler;
+	private volatile Alarm alarm = null;
+	
+	/**
+	 * One-shot alarm which prepares the player shortly before the alarm, guarded like alarm
+	 */
+	private volatile Alarm prerollAlarm = null;
+	
+	/**
+	 * Last fired deadline, which decides about alarms missed while the application wasn't running
+	 */
+	private final AlarmState alarmState = new AlarmState(STATE_FILE);
+	private boolean alarmStateRestored = false;
+	
+	/**
+	 * These variables are used to handle start / stop actions of PlayMP3,
+	 * cannotRunAlarm is read by the scheduler thread as well
 	 */
 	private boolean alarmStarted = false;
-	private boolean cannotRunAlarm = false;
+	private volatile boolean cannotRunAlarm = false;
 	
 	/**
 	 * Used with TrayApp to hide / show the main shell
@@ -133,7 +196,8 @@ public class AlarmClock {
 				setAlarmCanRun(!cannotRunAlarm, appTray);
 			}
 		});
-		setAlarmCanRun(true, appTray);
+		cannotRunAlarm = !alarmState.isEnabled();
+		showAlarmCanRun(appTray);
 		
 		/**
 		 * Settings button
@@ -180,6 +244,13 @@ public class AlarmClock {
 			ErrorReporter.reportError(shell, "Unable to read configuration from '" + CONFIGURATION_FILE + "'");
 		}
 		
+		if (settings.getPcmCacheMegabytes() > 0) {
+			pcmCache = new PcmCache(PCM_CACHE_DIRECTORY, settings.getPcmCacheMegabytes() * 1048576L);
+			player.setPcmCache(pcmCache);
+		}
+		
+		player.getDecoderStats().setEnabled(settings.getDecoderStats());
+		
 		calendar = Calendar.getInstance();
 		setNewTimezone();
 		
@@ -188,8 +259,12 @@ public class AlarmClock {
 		updateAlarmTime(settings.getAlarmHour(), settings.getAlarmMinute(), settings.getAlarmSecond());
 				
 		createTimeUpdater();
+		createAlarmHandler();
+		createVisibilityHandler();
+		scheduleAlarm();
 		groupboxTime.pack();
 		startTimeUpdater();
+		scheduler.start();
 		shell.open();
 		InputStream is = AlarmClock.class.getResourceAsStream("16x16.gif");
 		if (is == null) {
@@ -204,13 +279,15 @@ public class AlarmClock {
 			}
 		}
 		
+		tickSource.stop();
+		scheduler.shutdown();
 		appTray.dispose();
 		display.dispose();
 	}
 	
 	/**
-	 * Creates display and shell for this application, also creates instance of settings
-	 * and sets shell title to Alarm clock
+	 * Creates display and shell for this application, also creates instance of settings,
+	 * the alarm scheduler chosen in settings and sets shell title to Alarm clock
 	 */
 	private void createShellAndDisplay() {
 		display = new Display();
@@ -221,100 +298,410 @@ public class AlarmClock {
 		centerShell(shell);
 		addOnCloseListener(shell);
 		settings = new Settings(this, player);
+		scheduler = "wheel".equals(settings.getAlarmScheduler()) ? new TimingWheelScheduler() : new AlarmScheduler();
 	}
 	
 	/**
-	 * Updates time in label1. When system time matches alarm time, plays  
-	 * MP3 and opens MessageBox, that waits until the OK button is hit, then stops music
+	 * Updates time in label1 at every second boundary. The tick thread never waits
+	 * for the UI thread, so a busy UI thread only delays the repaint.
 	 */
 	private void createTimeUpdater() {
 		performTimeUpdating = new Runnable() {
 			public void run() {
-				final Calendar cal = Calendar.getInstance(timezone);
-				labelCurrentTime.setText(String.format("%1$tH:%1$tM:%1$tS", cal));
+				repaintPending.set(false);
+				if (labelCurrentTime.isDisposed()) {
+					return;
+				}
 				
-				if (!cannotRunAlarm && !alarmStarted &&
-					cal.get(Calendar.HOUR_OF_DAY) == settings.getAlarmHour() &&
-					cal.get(Calendar.MINUTE) >= settings.getAlarmMinute() &&
-					cal.get(Calendar.SECOND) >= settings.getAlarmSecond())
-				{
-					if (settings.inSettings()) {
-						settings.stopPlayer();
-					}
-					
-					alarmStarted = true;
-					Runnable runnable = new Runnable() {
-						public void run() {
-							Thread thread = new Thread() {
-								public void run() {
-									try {
-										player.setFileToPlay(settings.getAlarmFilename());
-										player.addPlaybackListener(null);
-										player.play();
-									} catch (Throwable e) {
-										if (player.isPlaying()) {
-											player.stop();
-										}
-										
-										ErrorReporter.reportError(shell, "Mp3Player failed.\nDetail: " + e.toString());
-										return;
-									}
-									
-									final MessageBox msg1 = new MessageBox(shell, SWT.ICON_INFORMATION | SWT.OK | SWT.TOP);
-									msg1.setText("Alarm has been executed.");
-									msg1.setMessage("After you wake up, hit this button.");
-									msg1.open();
-									
-									player.stop();
-									setAlarmCanRun(true, appTray);
-									alarmStarted = false;
-									cannotRunAlarm = true;
-								}
-							};
-							
-							display.asyncExec(thread);
-						}
-					};
-					
-					runnable.run();
+				if (timeFormatter.format(tickTime)) {
+					labelCurrentTime.setText(timeFormatter.getText());
 				}
 			}
 		};
 		
 		/**
-		 * Thread to perform time-updating every second
+		 * Tick source to perform time-updating at every second boundary
 		 */
-		updateTime = new Thread() {
+		tickSource = new TickSource(new TickListener() {
+			public void tick(long time, long lateness) {
+				if (display.isDisposed()) {
+					tickSource.stop();
+					return;
+				}
+				
+				tickTime = time;
+				if (!repaintPending.compareAndSet(false, true)) {
+					return;
+				}
+				
+				try {
+					display.asyncExec(performTimeUpdating);
+				} catch (SWTException e) {
+					tickSource.stop();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Delivers ticks only while the shell is visible. In the tray, the tick thread sleeps
+	 * until the shell is shown again and the scheduler sleeps until the next alarm.
+	 */
+	private void createVisibilityHandler() {
+		tickSource.setWakeupCounter(wakeupCounter);
+		scheduler.setWakeupCounter(wakeupCounter);
+		
+		shell.addListener(SWT.Hide, new Listener() {
+			public void handleEvent(Event event) {
+				tickSource.setPaused(true);
+				wakeupCounter.setMode(WakeupCounter.HIDDEN);
+			}
+		});
+		
+		shell.addListener(SWT.Show, new Listener() {
+			public void handleEvent(Event event) {
+				wakeupCounter.setMode(WakeupCounter.VISIBLE);
+				tickSource.setPaused(false);
+				tickTime = System.currentTimeMillis();
+				performTimeUpdating.run();
+			}
+		});
+	}
+	
+	/**
+	 * Returns the counter of background thread wakeups in the visible and hidden mode
+	 * 
+	 * @return wakeup counter
+	 */
+	public WakeupCounter getWakeupCounter() {
+		return wakeupCounter;
+	}
+	
+	/**
+	 * Subscribes to the alarm scheduler. When the alarm goes off, plays MP3 and opens
+	 * MessageBox, that waits until the OK button is hit, then stops music
+	 */
+	private void createAlarmHandler() {
+		final Runnable performAlarm = new Runnable() {
 			public void run() {
-				while (null != updateTime && display != null && !display.isDisposed()) {
-					if (display == null) {
-						return;
+				if (alarmStarted) {
+					return;
+				}
+				
+				if (cannotRunAlarm) {
+					releasePreparedSound();
+					return;
+				}
+				
+				if (settings.inSettings()) {
+					settings.stopPlayer();
+				}
+				
+				alarmStarted = true;
+				Throwable soundError = null;
+				try {
+					player.setFileToPlay(settings.getAlarmFilename());
+					player.setStartOffset(settings.getAlarmStartOffset() * 1000L);
+					player.setPlaylist(createPlaylist(settings.getAlarmFilename()));
+					player.setFadeIn(settings.getAlarmFadeInSeconds() * 1000L);
+					player.addPlaybackListener(null);
+					player.play();
+				} catch (Throwable e) {
+					soundError = e;
+				}
+				
+				if (soundError != null && !playFallbackTone()) {
+					if (player.isPlaying()) {
+						player.stop();
 					}
 					
-					display.syncExec(performTimeUpdating);
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException e) {
+					alarmStarted = false;
+					ErrorReporter.reportError(shell, "Mp3Player failed.\nDetail: " + soundError.toString());
+					return;
+				}
+				
+				final MessageBox msg1 = new MessageBox(shell, SWT.ICON_INFORMATION | SWT.OK | SWT.TOP);
+				msg1.setText("Alarm has been executed.");
+				if (soundError == null) {
+					msg1.setMessage("After you wake up, hit this button.");
+				} else {
+					msg1.setMessage("After you wake up, hit this button.\n\nThe alarm sound couldn't be played, " +
+						"the built-in tone is playing instead.\nDetail: " + soundError.toString());
+				}
+				msg1.open();
+				
+				player.stop();
+				
+				/**
+				 * A recurring rule stays enabled for its next occurrence, which is queued already
+				 */
+				final Alarm current = alarm;
+				if (current == null || current.getRule() == null || !current.getRule().isRepeating()) {
+					setAlarmCanRun(true, appTray);
+				}
+				
+				alarmStarted = false;
+			}
+		};
+		
+		scheduler.addAlarmListener(new AlarmListener() {
+			public void alarmFired(Alarm firedAlarm, long deadline) {
+				if (firedAlarm == prerollAlarm) {
+					if (cannotRunAlarm) {
 						return;
 					}
-				};
+					
+					final String filename = firedAlarm.getFilename();
+					validateAlarmSound(filename);
+					
+					/**
+					 * Decoding the start of the file would delay the alarm itself on the scheduler thread
+					 */
+					player.runInBackground(new Runnable() {
+						public void run() {
+							prepareAlarmSound(filename);
+						}
+					});
+					return;
+				}
+				
+				if (firedAlarm != alarm || display.isDisposed()) {
+					return;
+				}
+				
+				if (!cannotRunAlarm) {
+					alarmState.setLastFired(deadline);
+				}
+				
+				schedulePreroll();
+				display.asyncExec(performAlarm);
 			}
-		};
+			
+			public void alarmMissed(Alarm missedAlarm, long deadline) {
+				if (missedAlarm != alarm) {
+					return;
+				}
+				
+				if (!cannotRunAlarm) {
+					alarmState.setLastFired(deadline);
+					System.out.println("Missed alarm of " + new Date(deadline) + " skipped (" + missedAlarm.getCatchUpPolicy() + ")");
+				}
+				
+				schedulePreroll();
+			}
+		});
+	}
+	
+	/**
+	 * (Re)schedules the alarm to the next occurrence of the alarm time or the recurrence
+	 * rule set in settings, further occurrences are queued by the scheduler. The alarm is
+	 * resolved to an absolute deadline only here, i.e. when the settings or the timezone
+	 * change, the queued deadline is kept when neither of them differs.
+	 */
+	public void scheduleAlarm() {
+		final RecurrenceRule rule;
+		try {
+			if (settings.getAlarmRecurrence().length() == 0) {
+				rule = RecurrenceRule.once(settings.getAlarmHour(), settings.getAlarmMinute(), settings.getAlarmSecond());
+			} else {
+				rule = new RecurrenceRule(settings.getAlarmRecurrence());
+			}
+		} catch (IllegalArgumentException e) {
+			scheduleAlarm(null);
+			ErrorReporter.reportError(shell, "Invalid alarm recurrence.\nDetail: " + e.getMessage());
+			return;
+		}
+		
+		scheduleAlarm(rule);
+	}
+	
+	/**
+	 * Replaces the queued alarm, it's called on the UI thread and synchronized with
+	 * schedulePreroll() called on the scheduler thread
+	 * 
+	 * @param rule recurrence of the alarm or null to cancel it
+	 */
+	private synchronized void scheduleAlarm(RecurrenceRule rule) {
+		if (rule == null) {
+			if (alarm != null) {
+				scheduler.cancel(alarm);
+				alarm = null;
+			}
+			
+			schedulePreroll();
+			return;
+		}
+		
+		if (alarm != null) {
+			if (alarm.getDeadline() >= 0 && alarm.isEquivalent(settings.getAlarmFilename(), rule, timezone)) {
+				alarm.setCatchUpPolicy(settings.getAlarmCatchUp(), settings.getAlarmGraceSeconds() * 1000L);
+				return;
+			}
+			
+			scheduler.cancel(alarm);
+		}
+		
+		/**
+		 * The first alarm after start is resolved from the last fired one, so the
+		 * occurrence missed while the application wasn't running becomes due at once
+		 * and the catch-up policy decides about it
+		 */
+		long after = System.currentTimeMillis();
+		if (!alarmStateRestored) {
+			after = alarmState.getResumeTime(after);
+		}
+		
+		alarmStateRestored = true;
+		alarm = new Alarm(settings.getAlarmFilename(), rule, timezone);
+		alarm.setCatchUpPolicy(settings.getAlarmCatchUp(), settings.getAlarmGraceSeconds() * 1000L);
+		final long deadline = alarm.nextDeadline(after);
+		if (deadline >= 0) {
+			scheduler.schedule(alarm, deadline);
+		}
+		
+		if (pcmCache != null) {
+			pcmCache.renderInBackground(alarm.getFilename());
+		}
+		
+		schedulePreroll();
+	}
+	
+	/**
+	 * Schedules preparation of the player settings.getAlarmPrerollSeconds() before
+	 * the next deadline of the alarm, so the sound starts without delay. The alarm
+	 * sound is validated for the next deadline right away and again in the preroll.
+	 * Nothing is prepared while the alarm is disabled.
+	 */
+	private synchronized void schedulePreroll() {
+		if (prerollAlarm != null) {
+			scheduler.cancel(prerollAlarm);
+			prerollAlarm = null;
+		}
+		
+		final Alarm current = alarm;
+		if (current == null || current.getDeadline() < 0 || cannotRunAlarm) {
+			return;
+		}
+		
+		validateAlarmSound(current.getFilename());
+		if (settings.getAlarmPrerollSeconds() <= 0) {
+			return;
+		}
+		
+		prerollAlarm = new Alarm(current.getFilename());
+		scheduler.schedule(prerollAlarm, current.getDeadline() - settings.getAlarmPrerollSeconds() * 1000L);
+	}
+	
+	/**
+	 * Opens the alarm MP3 and the audio line ahead of the alarm, it's called on
+	 * an audio thread of the player. Failures are reported when the alarm plays.
+	 * 
+	 * @param filename
+	 */
+	private void prepareAlarmSound(String filename) {
+		if (player.isPlaying() || cannotRunAlarm) {
+			return;
+		}
+		
+		try {
+			player.setFileToPlay(filename);
+			player.setStartOffset(settings.getAlarmStartOffset() * 1000L);
+			player.setPlaylist(createPlaylist(filename));
+			player.prepare();
+		} catch (Throwable e) {
+			try {
+				player.prepareTone();
+			} catch (Throwable toneError) {
+				// playTone() reports it when the alarm plays
+			}
+		}
+	}
+	
+	/**
+	 * Releases the alarm sound prepared ahead of the alarm, so a disabled alarm doesn't
+	 * keep the audio line open. It runs on an audio thread of the player, because
+	 * it waits for a prepare() in progress.
+	 */
+	private void releasePreparedSound() {
+		player.runInBackground(new Runnable() {
+			public void run() {
+				player.unprepare();
+			}
+		});
+	}
+	
+	/**
+	 * Decodes the alarm sound on the background thread, a file which cannot be played
+	 * is reported while there's still time to choose another one
+	 * 
+	 * @param filename
+	 */
+	private void validateAlarmSound(String filename) {
+		soundValidator.validate(filename, new SoundValidationListener() {
+			public void soundValidated(final String filename, final String error) {
+				if (error == null || display.isDisposed()) {
+					return;
+				}
+				
+				display.asyncExec(new Runnable() {
+					public void run() {
+						if (!shell.isDisposed()) {
+							ErrorReporter.reportError(shell, "The alarm sound cannot be played, the built-in tone will play instead.\n" +
+								"File: " + filename + "\nDetail: " + error);
+						}
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Plays the built-in tone when the alarm sound cannot start, so the alarm is never silent
+	 * 
+	 * @return true when the tone is playing
+	 */
+	private boolean playFallbackTone() {
+		try {
+			player.setFadeIn(0);
+			player.playTone();
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		
+		return player.isPlaying();
+	}
+	
+	/**
+	 * Builds the playlist chosen in settings
+	 * 
+	 * @param  filename the alarm MP3
+	 * @return playlist or null when only the alarm MP3 plays
+	 */
+	private List<String> createPlaylist(String filename) {
+		if ("directory".equals(settings.getAlarmPlaylist())) {
+			return PlaylistPcmSource.fromDirectory(filename);
+		}
+		
+		if ("mru".equals(settings.getAlarmPlaylist())) {
+			return MemoryCombo.loadValues(MRU_FILE, Integer.MAX_VALUE);
+		}
+		
+		return null;
 	}
 	
 	/**
 	 * Starts the time-updating thread (it's not started in constructor to simplify possible class-extending)
 	 */
 	private void startTimeUpdater() {
-		if (updateTime == null) {
+		if (tickSource == null) {
 			throw new IllegalStateException();
 		}
 		
-		updateTime.start();
+		tickSource.start();
 	}
 	
 	/**
-	 * Sets new timezone for updateTime
+	 * Sets new timezone for time-updating and resolves the alarm deadline in it
 	 */
 	public void setNewTimezone() {
 		final String tmp[] = TimeZone.getAvailableIDs();
@@ -323,6 +710,16 @@ public class AlarmClock {
 			timezone = TimeZone.getTimeZone(tmp[settings.getTimezone()]);
 			calendar.setTimeZone(timezone);
 		}
+		
+		if (timeFormatter == null) {
+			timeFormatter = new TimeFormatter(timezone);
+		} else {
+			timeFormatter.setTimeZone(timezone);
+		}
+		
+		if (alarm != null) {
+			scheduleAlarm();
+		}
 	}
 	
 	/**
@@ -344,10 +741,22 @@ public class AlarmClock {
 			player.stop();
 		}
 		
+		if (player.getDecoderStats().isEnabled()) {
+			dumpDecoderStats();
+		}
+		
 		player.dispose();
+		soundValidator.dispose();
 		return true;
 	}
 	
+	/**
+	 * Prints the decoder stats of the alarms played so far to the console
+	 */
+	public void dumpDecoderStats() {
+		player.getDecoderStats().dump(System.out);
+	}
+	
 	/**
 	 * Adds an on-close listener that denies exit unless it's confirmed one
 	 * 
@@ -376,14 +785,31 @@ public class AlarmClock {
 			}
 
 			cannotRunAlarm = true;
-			buttonStartStop.setText("&Enable");
-			appTray.setAlarmStopped();			
+			alarmState.setEnabled(false);
+			releasePreparedSound();
 		} else {
 			if (!cannotRunAlarm) {				
 				return;
 			}
 			
 			cannotRunAlarm = false;
+			alarmState.setEnabled(true, System.currentTimeMillis());
+		}
+		
+		schedulePreroll();
+		showAlarmCanRun(appTray);
+	}
+	
+	/**
+	 * Updates the start / stop button and Tray to the current state of the alarm
+	 * 
+	 * @param appTray application tray
+	 */
+	private void showAlarmCanRun(AppTray appTray) {
+		if (cannotRunAlarm) {
+			buttonStartStop.setText("&Enable");
+			appTray.setAlarmStopped();
+		} else {
 			buttonStartStop.setText("&Disable");
 			appTray.setAlarmStarted();
 		}
@@ -0,0 +1,28 @@
+package alarmclock;
+
+/**
+ * Receives notifications from AlarmScheduler
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public interface AlarmListener {
+	/**
+	 * Invoked on the scheduler thread when the deadline of an alarm has been reached.
+	 * The next occurrence of a recurring alarm is already queued at this point,
+	 * one-shot alarm is no longer queued, so it can be scheduled again.
+	 *
+	 * @param alarm    the alarm which went off
+	 * @param deadline the deadline which has been reached
+	 */
+	public void alarmFired(Alarm alarm, long deadline);
+
+	/**
+	 * Invoked on the scheduler thread instead of alarmFired() when the deadline has
+	 * been missed and the catch-up policy of the alarm skips it
+	 *
+	 * @param alarm    the alarm which has been skipped
+	 * @param deadline the missed deadline
+	 */
+	public void alarmMissed(Alarm alarm, long deadline);
+}
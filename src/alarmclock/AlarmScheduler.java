@@ -0,0 +1,66 @@
+package alarmclock;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Event-driven alarm scheduler. Alarms are kept in a priority queue ordered
+ * by their deadlines and the scheduler thread sleeps until the earliest one,
+ * so the cost doesn't depend on how long the application runs.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.2
+ */
+public class AlarmScheduler extends AbstractAlarmScheduler {
+	/**
+	 * Orders alarms by their deadlines
+	 */
+	private static final Comparator<Alarm> DEADLINE_ORDER = new Comparator<Alarm>() {
+		public int compare(Alarm a, Alarm b) {
+			final long x = a.getDeadline();
+			final long y = b.getDeadline();
+			return (x < y) ? -1 : ((x == y) ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Pending alarms, the earliest deadline on the top
+	 */
+	private final PriorityQueue<Alarm> queue = new PriorityQueue<Alarm>(16, DEADLINE_ORDER);
+
+	public synchronized int size() {
+		return queue.size();
+	}
+
+	protected void enqueue(Alarm alarm) {
+		queue.add(alarm);
+	}
+
+	protected boolean dequeue(Alarm alarm) {
+		if (alarm.getDeadline() < 0) {
+			return false;
+		}
+
+		return queue.remove(alarm);
+	}
+
+	protected Alarm pollDue(long now) {
+		final Alarm head = queue.peek();
+		if (head == null || head.getDeadline() > now) {
+			return null;
+		}
+
+		return queue.poll();
+	}
+
+	protected void drainTo(List<Alarm> alarms, long now) {
+		alarms.addAll(queue);
+		queue.clear();
+	}
+
+	protected long nextWakeup(long now) {
+		final Alarm head = queue.peek();
+		return (head == null) ? Long.MAX_VALUE : head.getDeadline();
+	}
+}
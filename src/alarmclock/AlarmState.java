@@ -0,0 +1,171 @@
+package alarmclock;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Persistent state of the alarm which has to survive restarts of the application
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.1
+ */
+public class AlarmState {
+	/**
+	 * Name of the file to store the state to
+	 */
+	private final String filename;
+
+	/**
+	 * The last deadline which has been fired or skipped, 0 when unknown
+	 */
+	private long lastFired = 0;
+
+	/**
+	 * True when the user has enabled the alarm
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * Creates the state stored in the specified file and loads it
+	 *
+	 * @param filename
+	 */
+	public AlarmState(String filename) {
+		if (filename == null) {
+			throw new IllegalArgumentException("Filename cannot be null.");
+		}
+
+		this.filename = filename;
+		load();
+	}
+
+	/**
+	 * Returns the last deadline which has been fired or skipped
+	 *
+	 * @return milliseconds since the epoch or 0 when unknown
+	 */
+	public synchronized long getLastFired() {
+		return lastFired;
+	}
+
+	/**
+	 * Returns the instant the first deadline after a start is resolved from, so the
+	 * occurrence missed while the application wasn't running becomes due at once
+	 *
+	 * @param  now milliseconds since the epoch
+	 * @return the last fired deadline or now when it's unknown or in the future
+	 */
+	public synchronized long getResumeTime(long now) {
+		return (lastFired > 0 && lastFired < now) ? lastFired : now;
+	}
+
+	/**
+	 * Returns true when the alarm was enabled when the application exited
+	 *
+	 * @return enabled
+	 */
+	public synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Records whether the alarm is enabled and saves the state
+	 *
+	 * @param enabled
+	 */
+	public synchronized void setEnabled(boolean enabled) {
+		setEnabled(enabled, 0);
+	}
+
+	/**
+	 * Records whether the alarm is enabled and saves the state. Enabling the alarm
+	 * marks the deadlines up to now as handled, so the ones which passed while it
+	 * was disabled aren't replayed after a restart.
+	 *
+	 * @param enabled
+	 * @param now     milliseconds since the epoch
+	 */
+	public synchronized void setEnabled(boolean enabled, long now) {
+		if (this.enabled == enabled) {
+			return;
+		}
+
+		this.enabled = enabled;
+		if (enabled && now > lastFired) {
+			lastFired = now;
+		}
+
+		save();
+	}
+
+	/**
+	 * Records the deadline which has been fired or skipped and saves the state
+	 *
+	 * @param deadline milliseconds since the epoch
+	 */
+	public synchronized void setLastFired(long deadline) {
+		if (deadline <= lastFired) {
+			return;
+		}
+
+		lastFired = deadline;
+		save();
+	}
+
+	/**
+	 * Loads the state, missing or malformed file leaves the defaults
+	 */
+	private void load() {
+		final Document dom;
+		try {
+			dom = XmlReader.parseXmlFile(filename);
+		} catch (IOException e) {
+			return;
+		}
+
+		if (dom == null) {
+			return;
+		}
+
+		final Node enabledNode = dom.getElementsByTagName("enabled").item(0);
+		if (enabledNode != null) {
+			enabled = Boolean.valueOf(enabledNode.getTextContent().trim());
+		}
+
+		final Node node = dom.getElementsByTagName("lastFired").item(0);
+		if (node == null) {
+			return;
+		}
+
+		try {
+			lastFired = Long.parseLong(node.getTextContent().trim());
+		} catch (NumberFormatException e) {
+			lastFired = 0;
+		}
+	}
+
+	/**
+	 * Saves the state to the file
+	 */
+	private void save() {
+		final StringWriter writer = new StringWriter();
+		final XmlWriter xmlWriter = new XmlWriter(writer);
+		try {
+			xmlWriter.writeEntity("root");
+			xmlWriter.writeEntity("lastFired");
+			xmlWriter.writeText(String.valueOf(lastFired));
+			xmlWriter.endEntity();
+			xmlWriter.writeEntity("enabled");
+			xmlWriter.writeText(enabled ? "true" : "false");
+			xmlWriter.endEntity();
+			xmlWriter.endEntity();
+			xmlWriter.close();
+			xmlWriter.saveToFile(writer, filename);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
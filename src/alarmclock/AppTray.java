@@ -30,7 +30,7 @@ public class AppTray {
 	 */
 	private TrayItem trayMainItem;
 	private MenuItem trayExitAlarmclock, trayShowAlarmclock, trayHideAlarmclock,
-					 traySettings, trayEnableAlarm, trayDisableAlarm, trayAbout;
+					 traySettings, trayEnableAlarm, trayDisableAlarm, trayAbout, trayDecoderStats;
 	
 	/**
 	 * The instance of About dialog
@@ -109,6 +109,14 @@ public class AppTray {
 				}
 			});
 			
+			trayDecoderStats = new MenuItem (trayMenu, SWT.PUSH);
+			trayDecoderStats.setText("Decoder st&ats");
+			trayDecoderStats.addSelectionListener(new SelectionAdapter() {
+				public void widgetSelected(SelectionEvent event) {
+					alarmClock.dumpDecoderStats();
+				}
+			});
+			
 			trayExitAlarmclock = new MenuItem (trayMenu, SWT.PUSH);
 			trayExitAlarmclock.setText("E&xit alarmclock");
 			trayExitAlarmclock.addSelectionListener(new SelectionAdapter() {
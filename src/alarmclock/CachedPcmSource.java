@@ -0,0 +1,99 @@
+package alarmclock;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * PCM streamed from a memory-mapped file of PcmCache, there is no decoding involved
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class CachedPcmSource implements IPcmSource {
+	/**
+	 * Magic number and size of the header of cache files
+	 */
+	static final int MAGIC = 0x41435043;
+	static final int HEADER_SIZE = 16;
+
+	/**
+	 * Format of the samples
+	 */
+	private final int sampleRate;
+	private final int channels;
+
+	/**
+	 * Mapped samples
+	 */
+	private final ShortBuffer samples;
+
+	/**
+	 * Maps the cache file
+	 *
+	 * @param  filename cache file written by PcmCache
+	 *
+	 * @throws IOException when the file couldn't be mapped or isn't a cache file
+	 */
+	public CachedPcmSource(String filename) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Invalid size of cache file " + filename);
+			}
+
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Invalid cache file " + filename);
+			}
+
+			sampleRate = buffer.getInt();
+			channels = buffer.getInt();
+			final int length = buffer.getInt();
+			if (sampleRate <= 0 || channels < 1 || channels > 2 || length < 0 ||
+				HEADER_SIZE + 2L * length > channel.size())
+			{
+				throw new IOException("Corrupted cache file " + filename);
+			}
+
+			buffer.position(HEADER_SIZE);
+			final ShortBuffer view = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+			view.limit(length);
+			samples = view;
+		} finally {
+			file.close();
+		}
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int read(short[] buffer, int offset, int length) {
+		final int count = Math.min(length, samples.remaining());
+		if (count == 0 && length > 0) {
+			return -1;
+		}
+
+		samples.get(buffer, offset, count);
+		return count;
+	}
+
+	public void seek(long millis) {
+		final long position = Math.max(0, millis) * sampleRate / 1000 * channels;
+		samples.position((int)Math.min(samples.limit(), position));
+	}
+
+	public void close() {
+		// the mapping is released with the buffer
+	}
+}
@@ -0,0 +1,42 @@
+package alarmclock;
+
+/**
+ * Decides what happens with an alarm whose deadline passed while the application
+ * was stalled, the computer was suspended or the application wasn't running
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public enum CatchUpPolicy {
+	/**
+	 * The missed alarm goes off as soon as possible
+	 */
+	FIRE,
+
+	/**
+	 * The missed alarm goes off only when it's late less than the grace window
+	 */
+	GRACE,
+
+	/**
+	 * The missed alarm is skipped and reported to AlarmListener.alarmMissed()
+	 */
+	SKIP;
+
+	/**
+	 * Returns the policy of the specified name (fire, grace, skip)
+	 *
+	 * @param  name case insensitive name
+	 * @param  defaultPolicy policy used when the name is unknown
+	 * @return policy
+	 */
+	public static CatchUpPolicy fromName(String name, CatchUpPolicy defaultPolicy) {
+		for (CatchUpPolicy policy : values()) {
+			if (policy.name().equalsIgnoreCase(name)) {
+				return policy;
+			}
+		}
+
+		return defaultPolicy;
+	}
+}
@@ -0,0 +1,19 @@
+package alarmclock;
+
+/**
+ * Receives notifications about corrections of the wall clock detected by the scheduler
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public interface ClockJumpListener {
+	/**
+	 * Invoked on the scheduler thread after the wall clock has jumped and
+	 * the pending deadlines have been rebased
+	 *
+	 * @param jump milliseconds the wall clock moved with respect to the monotonic
+	 *             clock, positive after suspend or when it was set forward
+	 * @param now  the wall clock after the jump in milliseconds since the epoch
+	 */
+	public void clockJumped(long jump, long now);
+}
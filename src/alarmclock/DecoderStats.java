@@ -0,0 +1,302 @@
+package alarmclock;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the playback: histogram of decode times of MP3 frames, depth of
+ * the buffer between the decoder and the mixer, underruns of the mixer and time
+ * from Mp3Player.play() to the first sample mixed. Decoder threads and the
+ * output thread of the mixer record into it concurrently. Nothing is recorded
+ * while it's disabled, the callers check isEnabled() before reading the clock.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class DecoderStats {
+	/**
+	 * Number of buckets of the decode time histogram, bucket i counts frames decoded in
+	 * [2^(i-1), 2^i) microseconds, bucket 0 counts frames under 1 us and the last one
+	 * the frames slower than about 2 s
+	 */
+	public static final int BUCKETS = 22;
+
+	/**
+	 * True when the counters are recorded
+	 */
+	private volatile boolean enabled = false;
+
+	/**
+	 * Decode times of frames
+	 */
+	private final AtomicLongArray decodeHistogram = new AtomicLongArray(BUCKETS);
+	private final AtomicLong decodedFrames = new AtomicLong();
+	private final AtomicLong decodeTime = new AtomicLong();
+	private final AtomicLong maxDecodeTime = new AtomicLong();
+
+	/**
+	 * Buffer depth sampled by the mixer in samples
+	 */
+	private final AtomicLong depthSamples = new AtomicLong();
+	private final AtomicLong depthSum = new AtomicLong();
+	private final AtomicLong minDepth = new AtomicLong(Long.MAX_VALUE);
+
+	/**
+	 * Number of times the mixer found no decoded samples
+	 */
+	private final AtomicLong underruns = new AtomicLong();
+
+	/**
+	 * Times to the first sample in nanoseconds
+	 */
+	private final AtomicLong firstSamples = new AtomicLong();
+	private final AtomicLong lastTimeToFirstSample = new AtomicLong(-1);
+	private final AtomicLong maxTimeToFirstSample = new AtomicLong(-1);
+
+	/**
+	 * Starts or stops recording, the counters are kept
+	 *
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Returns true when the counters are recorded
+	 *
+	 * @return enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Clears all counters
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			decodeHistogram.set(i, 0);
+		}
+
+		decodedFrames.set(0);
+		decodeTime.set(0);
+		maxDecodeTime.set(0);
+		depthSamples.set(0);
+		depthSum.set(0);
+		minDepth.set(Long.MAX_VALUE);
+		underruns.set(0);
+		firstSamples.set(0);
+		lastTimeToFirstSample.set(-1);
+		maxTimeToFirstSample.set(-1);
+	}
+
+	/**
+	 * Records decoding of a frame
+	 *
+	 * @param nanos decode time
+	 */
+	public void recordDecode(long nanos) {
+		if (!enabled) {
+			return;
+		}
+
+		final long micros = nanos / 1000;
+		decodeHistogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+		decodedFrames.incrementAndGet();
+		decodeTime.addAndGet(nanos);
+		raise(maxDecodeTime, nanos);
+	}
+
+	/**
+	 * Records the depth of the buffer of a voice
+	 *
+	 * @param samples buffered samples
+	 */
+	public void recordBufferDepth(int samples) {
+		if (!enabled) {
+			return;
+		}
+
+		depthSamples.incrementAndGet();
+		depthSum.addAndGet(samples);
+		lower(minDepth, samples);
+	}
+
+	/**
+	 * Records an underrun of a voice
+	 */
+	public void recordUnderrun() {
+		if (enabled) {
+			underruns.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records the time from Mp3Player.play() to the first sample mixed
+	 *
+	 * @param nanos
+	 */
+	public void recordFirstSample(long nanos) {
+		if (!enabled) {
+			return;
+		}
+
+		firstSamples.incrementAndGet();
+		lastTimeToFirstSample.set(nanos);
+		raise(maxTimeToFirstSample, nanos);
+	}
+
+	/**
+	 * Returns the histogram of decode times, see BUCKETS
+	 *
+	 * @return copy of the counts
+	 */
+	public long[] getDecodeHistogram() {
+		final long[] histogram = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			histogram[i] = decodeHistogram.get(i);
+		}
+
+		return histogram;
+	}
+
+	/**
+	 * Returns number of decoded frames
+	 *
+	 * @return frames
+	 */
+	public long getDecodedFrames() {
+		return decodedFrames.get();
+	}
+
+	/**
+	 * Returns the average decode time of a frame
+	 *
+	 * @return nanoseconds or 0 when no frame has been decoded
+	 */
+	public long getAverageDecodeTime() {
+		final long frames = decodedFrames.get();
+		return (frames == 0) ? 0 : decodeTime.get() / frames;
+	}
+
+	/**
+	 * Returns the longest decode time of a frame
+	 *
+	 * @return nanoseconds
+	 */
+	public long getMaxDecodeTime() {
+		return maxDecodeTime.get();
+	}
+
+	/**
+	 * Returns the average depth of the buffers of the voices
+	 *
+	 * @return samples or -1 when nothing has been mixed
+	 */
+	public long getAverageBufferDepth() {
+		final long count = depthSamples.get();
+		return (count == 0) ? -1 : depthSum.get() / count;
+	}
+
+	/**
+	 * Returns the lowest depth of the buffers of the voices
+	 *
+	 * @return samples or -1 when nothing has been mixed
+	 */
+	public long getMinBufferDepth() {
+		final long min = minDepth.get();
+		return (min == Long.MAX_VALUE) ? -1 : min;
+	}
+
+	/**
+	 * Returns number of times the mixer found no decoded samples
+	 *
+	 * @return underruns
+	 */
+	public long getUnderruns() {
+		return underruns.get();
+	}
+
+	/**
+	 * Returns the time from the last Mp3Player.play() to its first sample
+	 *
+	 * @return nanoseconds or -1 when nothing has been played
+	 */
+	public long getLastTimeToFirstSample() {
+		return lastTimeToFirstSample.get();
+	}
+
+	/**
+	 * Returns the longest time from Mp3Player.play() to the first sample
+	 *
+	 * @return nanoseconds or -1 when nothing has been played
+	 */
+	public long getMaxTimeToFirstSample() {
+		return maxTimeToFirstSample.get();
+	}
+
+	/**
+	 * Prints the counters
+	 *
+	 * @param out
+	 */
+	public void dump(PrintStream out) {
+		final StringBuilder text = new StringBuilder();
+		text.append("Decoder stats").append(enabled ? "" : " (disabled)").append('\n');
+		text.append("  frames decoded: ").append(getDecodedFrames());
+		text.append(", average ").append(getAverageDecodeTime() / 1000).append(" us");
+		text.append(", max ").append(getMaxDecodeTime() / 1000).append(" us\n");
+		final long[] histogram = getDecodeHistogram();
+		for (int i = 0; i < BUCKETS; i++) {
+			if (histogram[i] > 0) {
+				text.append("    ").append(i == 0 ? "< 1" : "< " + (1L << i)).append(" us: ").append(histogram[i]).append('\n');
+			}
+		}
+
+		text.append("  buffer depth: average ").append(getAverageBufferDepth());
+		text.append(", min ").append(getMinBufferDepth()).append(" samples\n");
+		text.append("  underruns: ").append(getUnderruns()).append('\n');
+		text.append("  time to first sample: last ").append(toMillis(getLastTimeToFirstSample()));
+		text.append(" ms, max ").append(toMillis(getMaxTimeToFirstSample())).append(" ms (");
+		text.append(firstSamples.get()).append(" plays)");
+		out.println(text);
+	}
+
+	/**
+	 * Raises the counter to the value
+	 *
+	 * @param counter
+	 * @param value
+	 */
+	private static void raise(AtomicLong counter, long value) {
+		long current;
+		while ((current = counter.get()) < value && !counter.compareAndSet(current, value)) {
+			// retry
+		}
+	}
+
+	/**
+	 * Lowers the counter to the value
+	 *
+	 * @param counter
+	 * @param value
+	 */
+	private static void lower(AtomicLong counter, long value) {
+		long current;
+		while ((current = counter.get()) > value && !counter.compareAndSet(current, value)) {
+			// retry
+		}
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds, -1 is kept
+	 *
+	 * @param  nanos
+	 * @return milliseconds
+	 */
+	private static long toMillis(long nanos) {
+		return (nanos < 0) ? -1 : nanos / 1000000;
+	}
+}
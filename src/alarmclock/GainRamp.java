@@ -0,0 +1,67 @@
+package alarmclock;
+
+/**
+ * Fade-in from silence to full volume. The curve is computed once into a table
+ * of fixed-point gains (see PcmPipeline), playback only looks up the gain of
+ * the elapsed time once per mixed chunk. The gain rises with the square of the
+ * time, which sounds more even than a linear ramp.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class GainRamp {
+	/**
+	 * Number of steps of the curve
+	 */
+	private static final int STEPS = 1024;
+
+	/**
+	 * Length of the ramp in milliseconds
+	 */
+	private final long duration;
+
+	/**
+	 * Gains of the steps in fixed point, the last one is unity
+	 */
+	private final int[] table = new int[STEPS + 1];
+
+	/**
+	 * Computes the curve
+	 *
+	 * @param duration milliseconds from silence to full volume
+	 */
+	public GainRamp(long duration) {
+		if (duration <= 0) {
+			throw new IllegalArgumentException("Duration must be positive.");
+		}
+
+		this.duration = duration;
+		for (int i = 0; i <= STEPS; i++) {
+			final double x = i / (double)STEPS;
+			table[i] = (int)Math.round(x * x * PcmPipeline.UNITY_GAIN);
+		}
+	}
+
+	/**
+	 * Returns the length of the ramp
+	 *
+	 * @return milliseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns the gain at the time
+	 *
+	 * @param  elapsed milliseconds since the start of the ramp
+	 * @return gain in fixed point of PcmPipeline
+	 */
+	public int gainAt(long elapsed) {
+		if (elapsed >= duration) {
+			return PcmPipeline.UNITY_GAIN;
+		}
+
+		return table[(int)(Math.max(0, elapsed) * STEPS / duration)];
+	}
+}
@@ -0,0 +1,81 @@
+package alarmclock;
+
+/**
+ * Engine which fires alarms at their deadlines on its own thread, implemented by
+ * AlarmScheduler (binary heap) and TimingWheelScheduler (hierarchical timing wheel)
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public interface IAlarmScheduler {
+	/**
+	 * Adds a listener notified when an alarm goes off
+	 *
+	 * @param listener
+	 */
+	public void addAlarmListener(AlarmListener listener);
+
+	/**
+	 * Removes previously added listener
+	 *
+	 * @param listener
+	 */
+	public void removeAlarmListener(AlarmListener listener);
+
+	/**
+	 * Adds a listener notified when a jump of the wall clock has been detected
+	 *
+	 * @param listener
+	 */
+	public void addClockJumpListener(ClockJumpListener listener);
+
+	/**
+	 * Removes previously added listener
+	 *
+	 * @param listener
+	 */
+	public void removeClockJumpListener(ClockJumpListener listener);
+
+	/**
+	 * Schedules the alarm to go off at the specified deadline. An alarm which is
+	 * already queued is moved to the new deadline.
+	 *
+	 * @param alarm
+	 * @param deadline in milliseconds since the epoch
+	 */
+	public void schedule(Alarm alarm, long deadline);
+
+	/**
+	 * Removes the alarm from the queue
+	 *
+	 * @param  alarm
+	 * @return true when the alarm was queued
+	 */
+	public boolean cancel(Alarm alarm);
+
+	/**
+	 * Returns number of pending alarms
+	 *
+	 * @return number of alarms
+	 */
+	public int size();
+
+	/**
+	 * Sets the counter of the scheduler thread wakeups
+	 *
+	 * @param wakeupCounter or null
+	 */
+	public void setWakeupCounter(WakeupCounter wakeupCounter);
+
+	/**
+	 * Starts the scheduler thread
+	 *
+	 * @throws IllegalStateException when the scheduler has been already started
+	 */
+	public void start();
+
+	/**
+	 * Stops the scheduler thread, pending alarms are kept in the queue
+	 */
+	public void shutdown();
+}
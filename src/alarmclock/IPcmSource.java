@@ -0,0 +1,53 @@
+package alarmclock;
+
+import java.io.IOException;
+
+/**
+ * Source of decoded 16-bit PCM played by PcmPipeline, implemented by the MP3
+ * decoder, the cached PCM of a file, sampled audio files, a playlist and the
+ * built-in tone
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public interface IPcmSource {
+	/**
+	 * Returns the sample rate of the produced PCM
+	 *
+	 * @return samples per second of one channel
+	 */
+	public int getSampleRate();
+
+	/**
+	 * Returns number of channels, samples of the channels are interleaved
+	 *
+	 * @return 1 or 2
+	 */
+	public int getChannels();
+
+	/**
+	 * Reads signed 16-bit samples
+	 *
+	 * @param  buffer destination
+	 * @param  offset index of the first sample in buffer
+	 * @param  length maximum number of samples to read
+	 * @return number of samples read or -1 at the end of the source
+	 *
+	 * @throws IOException when the source couldn't be read or decoded
+	 */
+	public int read(short[] buffer, int offset, int length) throws IOException;
+
+	/**
+	 * Moves to the specified time, the following read() starts there
+	 *
+	 * @param  millis time from the start of the sound, the source ends when it's past the end
+	 *
+	 * @throws IOException when the source couldn't be positioned
+	 */
+	public void seek(long millis) throws IOException;
+
+	/**
+	 * Releases the resources of the source
+	 */
+	public void close();
+}
@@ -0,0 +1,100 @@
+package alarmclock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Input stream over a memory-mapped file, reads are plain copies from the
+ * mapping without a system call per buffer refill
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class MappedInputStream extends InputStream {
+	/**
+	 * Mapped content of the file
+	 */
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * Position set by mark()
+	 */
+	private int markPosition = 0;
+
+	/**
+	 * Maps the whole file, the file itself is closed right away
+	 *
+	 * @param  filename
+	 *
+	 * @throws IOException when the file couldn't be opened or is larger than 2 GB
+	 */
+	public MappedInputStream(String filename) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File " + filename + " is too large to be mapped");
+			}
+
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+	}
+
+	public int read() {
+		return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+	}
+
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+
+		final int count = Math.min(len, buffer.remaining());
+		if (count == 0) {
+			return -1;
+		}
+
+		buffer.get(b, off, count);
+		return count;
+	}
+
+	public long skip(long n) {
+		final int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + count);
+		return count;
+	}
+
+	/**
+	 * Moves to the specified position in the file
+	 *
+	 * @param position from the start, the stream ends when it's past the end
+	 */
+	public void seek(long position) {
+		buffer.position((int)Math.min(buffer.limit(), Math.max(0, position)));
+	}
+
+	public int available() {
+		return buffer.remaining();
+	}
+
+	public boolean markSupported() {
+		return true;
+	}
+
+	public void mark(int readlimit) {
+		markPosition = buffer.position();
+	}
+
+	public void reset() {
+		buffer.position(markPosition);
+	}
+
+	public void close() {
+		buffer.position(buffer.limit());
+	}
+}
@@ -10,6 +10,7 @@ import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.events.FocusEvent;
 import org.eclipse.swt.events.FocusListener;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.w3c.dom.Document;
@@ -80,8 +81,7 @@ public class MemoryCombo {
 			 public void focusLost(FocusEvent event) {
 				 final String text = combo.getText();
 				 final File file = new File(text);
-				 final int textLength = text.length() - 4;
-				 if (!file.exists() || textLength < 1 || 0 != text.substring(textLength).compareToIgnoreCase(".mp3")) {
+				 if (!file.exists() || !PcmSourceFactory.isSupported(text)) {
 					 if (originalText == null) {
 						 originalText = "";
 					 }
@@ -171,6 +171,24 @@ public class MemoryCombo {
 		combo.setLayoutData(layoutData);
 	}
 	
+	/**
+	 * Adds listener notified when the text of combo changes
+	 * 
+	 * @param listener
+	 */
+	public void addModifyListener(ModifyListener listener) {
+		combo.addModifyListener(listener);
+	}
+	
+	/**
+	 * Sets tooltip of combo
+	 * 
+	 * @param text tooltip or null to remove it
+	 */
+	public void setToolTipText(String text) {
+		combo.setToolTipText(text);
+	}
+	
 	/**
 	 * Sets text content for combo
 	 * 
@@ -256,27 +274,40 @@ public class MemoryCombo {
 	 * @param filename
 	 */
 	public void loadFromFile(String filename) {
+		list.clear();
+		list.addAll(loadValues(filename, maxSize));
+	}
+	
+	/**
+	 * Reads the list stored by saveToFile() without creating the combo,
+	 * e.g. to play the recently used MP3s as a playlist
+	 * 
+	 * @param  filename
+	 * @param  maxSize maximum number of values to read
+	 * @return values, empty when the file couldn't be read
+	 */
+	public static List<String> loadValues(String filename, int maxSize) {
 		if (filename == null) {
 			throw new IllegalArgumentException("Filename cannot be null.");
 		}
 		
-		list.clear();
+		final List<String> values = new ArrayList<String>();
 		final Document dom;		
 		try {
 			dom = XmlReader.parseXmlFile(filename);
 		} catch (IOException e) {
 			//ErrorReporter.reportError(combo.getShell(), e.toString());
-			return;
+			return values;
 		}
 		
 		final Node nodeNumberOfValues = dom.getElementsByTagName("numberOfValues").item(0);
 		if (nodeNumberOfValues == null) {
-			return;
+			return values;
 		}
 		
 		final String strNumberOfValues = nodeNumberOfValues.getTextContent();
 		if (strNumberOfValues == null) {
-			return;
+			return values;
 		}
 				
 		int numberOfValues = Integer.parseInt(strNumberOfValues);
@@ -288,10 +319,12 @@ public class MemoryCombo {
 		for (int i = 0; i < numberOfValues; i++) {
 			final Node node = dom.getElementsByTagName("value" + i).item(0);
 			if (node == null) {
-				return;
+				return values;
 			}
 			
-			list.add(node.getTextContent());
+			values.add(node.getTextContent());
 		}
+		
+		return values;
 	}
 }
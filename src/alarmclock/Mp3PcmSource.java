@@ -0,0 +1,221 @@
+package alarmclock;
+
+import java.io.IOException;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * PCM decoded from MP3 file by JLayer, frame by frame as it's read. The file
+ * is memory-mapped (see MappedInputStream), seek() jumps to the frame found
+ * in the seek table of the file (see Mp3SeekTable). Decoding starts at the
+ * first frame of the seek table too: JLayer drops audio after an ID3v2 tag,
+ * about as much as the tag is long, and decodes the Xing / Info frame as a
+ * silent frame, neither of which the table holds.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.4
+ */
+public class Mp3PcmSource implements IPcmSource {
+	/**
+	 * Number of frames decoded and dropped before the frame seek() jumps to, a frame
+	 * of layer III may use data of the previous ones (the bit reservoir)
+	 */
+	private static final int WARMUP_FRAMES = 2;
+
+	/**
+	 * The file, its mapped content, the stream of MP3 frames and the decoder
+	 */
+	private final String filename;
+	private final MappedInputStream input;
+	private Bitstream bitstream;
+	private Decoder decoder;
+
+	/**
+	 * Samples of the last decoded frame and the first one not read yet
+	 */
+	private short[] frame = null;
+	private int frameLength = 0;
+	private int framePosition = 0;
+
+	/**
+	 * True after the last frame has been decoded
+	 */
+	private boolean finished = false;
+
+	/**
+	 * Receives decode times of frames or null
+	 */
+	private final DecoderStats stats;
+
+	/**
+	 * Opens the file and decodes the first frame to find out the format
+	 *
+	 * @param  filename
+	 *
+	 * @throws IOException when the file couldn't be opened or contains no MP3 frame
+	 */
+	public Mp3PcmSource(String filename) throws IOException {
+		this(filename, null);
+	}
+
+	/**
+	 * Opens the file and decodes the first frame to find out the format
+	 *
+	 * @param  filename
+	 * @param  stats    receives decode times of frames or null
+	 *
+	 * @throws IOException when the file couldn't be opened or contains no MP3 frame
+	 */
+	public Mp3PcmSource(String filename, DecoderStats stats) throws IOException {
+		this.filename = filename;
+		this.stats = stats;
+		input = new MappedInputStream(filename);
+		try {
+			input.seek(Mp3SeekTable.get(filename).getOffset(0));
+		} catch (IOException e) {
+			// no frame the table understands, JLayer finds what it can from the start
+		}
+
+		bitstream = new Bitstream(input);
+		decoder = new Decoder();
+		try {
+			if (!decodeFrame()) {
+				throw new IOException("No MP3 frame found in " + filename);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public int getSampleRate() {
+		return decoder.getOutputFrequency();
+	}
+
+	public int getChannels() {
+		return decoder.getOutputChannels();
+	}
+
+	public int read(short[] buffer, int offset, int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			if (framePosition == frameLength && (finished || !decodeFrame())) {
+				break;
+			}
+
+			final int count = Math.min(length - read, frameLength - framePosition);
+			System.arraycopy(frame, framePosition, buffer, offset + read, count);
+			framePosition += count;
+			read += count;
+		}
+
+		return (read == 0 && length > 0) ? -1 : read;
+	}
+
+	public void seek(long millis) throws IOException {
+		final Mp3SeekTable table = Mp3SeekTable.get(filename);
+		final int target = table.frameAt(millis);
+		if (seekFrame(table, target, WARMUP_FRAMES) && decodeFrame()) {
+			final long skipped = (Math.max(0, millis) * table.getSampleRate() / 1000 -
+				(long)target * table.getSamplesPerFrame()) * getChannels();
+			framePosition = (int)Math.min(frameLength, skipped);
+		}
+	}
+
+	/**
+	 * Jumps to the frame of the seek table, the warm-up frames before it are decoded and dropped
+	 *
+	 * @param  table         seek table of the file
+	 * @param  target        index of the frame read next
+	 * @param  warmupFrames  number of frames decoded before the target
+	 * @return false when the stream has ended during the warm-up
+	 *
+	 * @throws IOException
+	 */
+	boolean seekFrame(Mp3SeekTable table, int target, int warmupFrames) throws IOException {
+		final int first = Math.max(0, target - warmupFrames);
+		input.seek(table.getOffset(first));
+		bitstream = new Bitstream(input);
+		decoder = new Decoder();
+		finished = false;
+		frameLength = 0;
+		framePosition = 0;
+		for (int i = first; i < target; i++) {
+			try {
+				if (!decodeFrame()) {
+					return false;
+				}
+			} catch (IOException e) {
+				// the frame needs data of the frames before first, it's dropped anyway
+			}
+		}
+
+		framePosition = frameLength;
+		return true;
+	}
+
+	/**
+	 * Decodes the next frame as a whole, it's used instead of read() by callers which count frames
+	 *
+	 * @param  buffer destination, it must hold the samples of a whole frame
+	 * @param  offset
+	 * @return number of samples of the frame, 0 when the frame has no output, -1 at the end
+	 *
+	 * @throws IOException when the frame couldn't be decoded
+	 */
+	int readFrame(short[] buffer, int offset) throws IOException {
+		if (finished || !decodeFrame()) {
+			return -1;
+		}
+
+		System.arraycopy(frame, 0, buffer, offset, frameLength);
+		framePosition = frameLength;
+		return frameLength;
+	}
+
+	public void close() {
+		try {
+			bitstream.close();
+		} catch (BitstreamException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Decodes the next frame
+	 *
+	 * @return false at the end of the stream
+	 *
+	 * @throws IOException when the frame couldn't be decoded
+	 */
+	private boolean decodeFrame() throws IOException {
+		final long start = (stats != null && stats.isEnabled()) ? System.nanoTime() : 0;
+		try {
+			final Header header = bitstream.readFrame();
+			if (header == null) {
+				finished = true;
+				return false;
+			}
+
+			final SampleBuffer output = (SampleBuffer)decoder.decodeFrame(header, bitstream);
+			bitstream.closeFrame();
+			frame = output.getBuffer();
+			frameLength = output.getBufferLength();
+			framePosition = 0;
+			if (start != 0) {
+				stats.recordDecode(System.nanoTime() - start);
+			}
+
+			return true;
+		} catch (JavaLayerException e) {
+			throw new IOException("Unable to decode MP3 frame: " + e.getMessage());
+		} catch (RuntimeException e) {
+			throw new IOException("Unable to decode MP3 frame: " + e.toString());
+		}
+	}
+}
@@ -1,144 +1,664 @@
 package alarmclock;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.LineUnavailableException;
 
 import javazoom.jl.decoder.JavaLayerException;
-import javazoom.jl.player.advanced.AdvancedPlayer;
+import javazoom.jl.player.advanced.PlaybackEvent;
 import javazoom.jl.player.advanced.PlaybackListener;
 
 /**
  * Tiny MP3 player API built on <a href="http://www.javazoom.net/javalayer/javalayer.html">JavaZoom JLayer</a>
- *  
+ *
+ * The player can be prepared before it's needed: prepare() opens the file and the
+ * audio line and starts decoding, so play() only starts writing PCM which is
+ * already decoded. Every play() adds a voice (see PcmPipeline) to the mixer,
+ * so sounds started while another one plays are mixed into the same line
+ * (see PcmMixer). When a PCM cache is set, files which are already in the
+ * cache are played from the mapped PCM without decoding. Playback starts at
+ * the offset set by setStartOffset(). When a playlist is set, the file is the
+ * first track and the playlist repeats until stop() (see PlaylistPcmSource).
+ * WAV, AIFF, AU and raw PCM files go through the same path without any
+ * decoding (see PcmSourceFactory). playTone() plays a built-in beeping for
+ * the case the file cannot start.
+ *
+ * The tasks run on a small pool of named daemon threads owned by the player.
+ * The player moves between IDLE, PREPARING, PLAYING, STOPPING and CLOSED, so
+ * play() and stop() may be called from any thread. Calls of prepare(), play()
+ * and playTone() run one after another, each waits for a stop() in progress and
+ * fails once the player has been closed. stop() is ignored when nothing plays,
+ * a stop() while the player is preparing stops all sounds when it's done.
+ *
+ * getDecoderStats() returns counters of decode times, buffer depth, underruns
+ * and time to the first sample, they cost nothing until they're enabled.
+ *
  * @author --==[FReeZ]==--
- * @version 1.1
+ * @version 2.3
  */
 public class Mp3Player {
+	/**
+	 * States of the player
+	 */
+	public static final int IDLE = 0;
+	public static final int PREPARING = 1;
+	public static final int PLAYING = 2;
+	public static final int STOPPING = 3;
+	public static final int CLOSED = 4;
+
+	/**
+	 * Maximum number of audio threads: the output task of the mixer and the decoder tasks,
+	 * decoder tasks are short, so voices share the threads
+	 */
+	private static final int MAX_THREADS = 4;
+
+	/**
+	 * How long an idle audio thread is kept in seconds
+	 */
+	private static final long THREAD_KEEP_ALIVE = 30;
+
+	/**
+	 * How long play() and prepare() wait for a stop() in progress in milliseconds
+	 */
+	private static final long STOP_TIMEOUT = 2000;
+
+	/**
+	 * Current state, it's read without a lock and changed under stateLock only
+	 */
+	private final AtomicInteger state = new AtomicInteger(IDLE);
+
+	/**
+	 * Guards the transitions of state and stopRequested, it's held only for the transition
+	 * itself, so stop() doesn't wait for a prepare() in progress
+	 */
+	private final Object stateLock = new Object();
+
+	/**
+	 * True when stop() has been called in the PREPARING state
+	 */
+	private boolean stopRequested = false;
+
+	/**
+	 * Threads running the pipeline tasks
+	 */
+	private final ExecutorService executor;
+
 	/**
 	 * Canonical file path to MP3 which plays when alarm has been invoked
 	 */
 	private String mp3Filename = null;
-	
+
+	/**
+	 * Files played after mp3Filename or null to play mp3Filename only
+	 */
+	private List<String> playlist = null;
+
+	/**
+	 * Time from the start of the file where playback begins
+	 */
+	private long startOffset = 0;
+
+	/**
+	 * Pipeline created by prepare(), the file, offset and playlist it plays, preparedFilename is null when nothing is prepared
+	 */
+	private String preparedFilename = null;
+	private long preparedOffset = 0;
+	private List<String> preparedPlaylist = null;
+	private PcmPipeline preparedPipeline = null;
+
 	/**
-	 * The instance of MP3 player
+	 * Mixer of the voices started by play()
 	 */
-	private AdvancedPlayer player = null;
-	
+	private final PcmMixer mixer;
+
 	/**
-	 * True when player is playing a song
+	 * Gain and fade-in of the voices started by play(), fadeIn is null when they start at full volume
 	 */
-	private boolean isPlaying = false;
-	
+	private float gain = 1;
+	private GainRamp fadeIn = null;
+
 	/**
 	 * Playback listener for started / finished events
 	 */
 	private PlaybackListener listener = null;
-	
+
+	/**
+	 * Cache of decoded PCM or null when files are always decoded
+	 */
+	private PcmCache pcmCache = null;
+
+	/**
+	 * Counters of decoding and output, they're disabled until enabled by the caller
+	 */
+	private final DecoderStats decoderStats = new DecoderStats();
+
+	/**
+	 * Creates the player and its audio threads, they're started on demand
+	 */
+	public Mp3Player() {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+			THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger(0);
+
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "Mp3Player-audio-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		pool.allowCoreThreadTimeOut(true);
+		executor = pool;
+		mixer = new PcmMixer(executor);
+	}
+
 	/**
 	 * Sets the canonical path of MP3 to play when alarm is invoked
-	 * 
+	 *
 	 * @param  filename (should be canonical)
-	 *  
+	 *
 	 * @throws FileNotFoundException when the specified file couldn't be found
 	 */
-	public void setFileToPlay(String filename) throws FileNotFoundException {
+	public synchronized void setFileToPlay(String filename) throws FileNotFoundException {
 		final File file = new File(filename);
 		if (!file.exists() || !file.canRead()) {
 			throw new FileNotFoundException(filename);
 		}
-		
+
 		mp3Filename = filename;
 	}
-	
+
+	/**
+	 * Sets the playlist of the following playbacks, the file set by setFileToPlay()
+	 * starts the playlist, it's added when the playlist doesn't contain it
+	 *
+	 * @param playlist files to play repeatedly or null to play the file once
+	 */
+	public synchronized void setPlaylist(List<String> playlist) {
+		this.playlist = (playlist == null || playlist.isEmpty()) ? null : playlist;
+	}
+
+	/**
+	 * Sets where the following playbacks begin
+	 *
+	 * @param millis time from the start of the file
+	 */
+	public synchronized void setStartOffset(long millis) {
+		startOffset = Math.max(0, millis);
+	}
+
+	/**
+	 * Sets the gain of the following playbacks
+	 *
+	 * @param gain 1 keeps the volume of the file
+	 */
+	public synchronized void setGain(float gain) {
+		this.gain = gain;
+	}
+
+	/**
+	 * Sets the fade-in of the following playbacks
+	 *
+	 * @param millis time from silence to full volume, 0 to start at full volume
+	 */
+	public synchronized void setFadeIn(long millis) {
+		if (millis <= 0) {
+			fadeIn = null;
+		} else if (fadeIn == null || fadeIn.getDuration() != millis) {
+			fadeIn = new GainRamp(millis);
+		}
+	}
+
 	/**
 	 * Adds playback listener with playbackStarted and playbackFinished methods
-	 * 
+	 *
 	 * @param listener
 	 */
-	public void addPlaybackListener(PlaybackListener listener) {
+	public synchronized void addPlaybackListener(PlaybackListener listener) {
 		this.listener = listener;
 	}
-	
+
+	/**
+	 * Sets the cache of decoded PCM, files missing in the cache are decoded
+	 * and rendered to the cache in background for the next playback
+	 *
+	 * @param pcmCache cache or null to always decode
+	 */
+	public synchronized void setPcmCache(PcmCache pcmCache) {
+		this.pcmCache = pcmCache;
+	}
+
+	/**
+	 * Opens the MP3 file previously set by setFileToPlay() and the audio line
+	 * and starts decoding, so the following play() starts without delay.
+	 * A prepare() or play() in progress and a stop() in progress are finished first.
+	 *
+	 * @throws JavaLayerException when the file couldn't be decoded, the line opened or the player has been closed
+	 * @throws FileNotFoundException when filename was not found
+	 */
+	public synchronized void prepare() throws JavaLayerException, FileNotFoundException {
+		enterPreparing();
+
+		try {
+			prepareFile();
+		} finally {
+			leavePreparing();
+		}
+	}
+
 	/**
-	 * Plays the MP3 file previously set by setFileToPlay()
-	 * 
+	 * Releases the file and the audio line opened by prepare() or prepareTone()
+	 * when the play() they were opened for won't come
+	 */
+	public synchronized void unprepare() {
+		closePrepared();
+		mixer.setHeld(false);
+	}
+
+	/**
+	 * Runs the task on the audio threads, so a caller which has to stay responsive
+	 * doesn't wait for prepare() decoding the file
+	 *
+	 * @param  task
+	 * @return false when the player has been closed and the task won't run
+	 */
+	public boolean runInBackground(Runnable task) {
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Plays the MP3 file previously set by setFileToPlay(), the player is prepared first
+	 * when prepare() hasn't been called for the file. When the player is playing already,
+	 * the file is mixed with the sounds being played.
+	 *
 	 * @throws JavaLayerException when player failed to play the file
 	 * @throws FileNotFoundException when filename was not found
 	 */
-	public void play() throws JavaLayerException, FileNotFoundException {
-		if (isPlaying) {
-			return;
+	public synchronized void play() throws JavaLayerException, FileNotFoundException {
+		final long requested = System.nanoTime();
+		enterPreparing();
+
+		PcmPipeline pipeline = null;
+		try {
+			prepareFile();
+			pipeline = preparedPipeline;
+			preparedFilename = null;
+			preparedPipeline = null;
+			pipeline.setGain(gain);
+			pipeline.setGainRamp(fadeIn);
+			pipeline.setDecoderStats(decoderStats, requested);
+			pipeline.setPlaybackListener(createVoiceListener(listener));
+			mixer.add(pipeline);
+			mixer.setHeld(false);
+		} catch (LineUnavailableException e) {
+			failed(pipeline);
+			throw new JavaLayerException("Audio line unavailable", e);
+		} catch (JavaLayerException e) {
+			failed(pipeline);
+			throw e;
+		} catch (FileNotFoundException e) {
+			failed(pipeline);
+			throw e;
+		} catch (RuntimeException e) {
+			failed(pipeline);
+			throw e;
 		}
-		
-		if (mp3Filename == null) {
-			throw new IllegalStateException("Filename cannot be null");
+
+		if (state.get() == CLOSED) {
+			pipeline.stop();
 		}
-		
-		final BufferedInputStream bis = new BufferedInputStream(new FileInputStream(mp3Filename));
-		player = new AdvancedPlayer(bis);
-		player.setPlayBackListener(listener);
-		
-		new Thread() {
-			public void run() {
-				try {
-					if (player != null) {
-						player.play();
-					}
-				} catch (JavaLayerException e) {
-					e.printStackTrace();
-					return;
-				}
-			}
-		}.start();
-		isPlaying = true;
+
+		leavePreparing();
 	}
-	
+
 	/**
-	 * Stops the current instance of MP3 player and closes the player
+	 * Opens the audio line for playTone(), so the tone starts without delay
+	 *
+	 * @throws JavaLayerException when the line couldn't be opened
 	 */
-	public void stop() {
-		if (player == null) {
-			throw new IllegalStateException("Player not opened.");
+	public void prepareTone() throws JavaLayerException {
+		try {
+			mixer.setHeld(true);
+			mixer.open(ToneSource.SAMPLE_RATE);
+		} catch (LineUnavailableException e) {
+			throw new JavaLayerException("Audio line unavailable", e);
 		}
-		
-		if (!isPlaying) {
-			return;
+	}
+
+	/**
+	 * Plays the built-in beeping (see ToneSource) until stop(), it's mixed with the
+	 * sounds being played. It's meant for the case when the file cannot start.
+	 *
+	 * @throws JavaLayerException when the line couldn't be opened or the player has been closed
+	 */
+	public synchronized void playTone() throws JavaLayerException {
+		final long requested = System.nanoTime();
+		enterPreparing();
+
+		PcmPipeline pipeline = null;
+		try {
+			pipeline = new PcmPipeline(new ToneSource(), executor);
+			pipeline.setGain(gain);
+			pipeline.setDecoderStats(decoderStats, requested);
+			pipeline.setPlaybackListener(createVoiceListener(null));
+			mixer.add(pipeline);
+			mixer.setHeld(false);
+		} catch (LineUnavailableException e) {
+			failed(pipeline);
+			throw new JavaLayerException("Audio line unavailable", e);
+		} catch (RuntimeException e) {
+			failed(pipeline);
+			throw e;
 		}
-		
-		if (player != null) {
-			player.stop();
+
+		if (state.get() == CLOSED) {
+			pipeline.stop();
 		}
-		
-		isPlaying = false;
+
+		leavePreparing();
 	}
-	
+
 	/**
-	 * Overrides internal isplaying status to false
+	 * Stops all sounds being played, nothing happens when the player isn't playing.
+	 * While the player is preparing, the sounds are stopped when it's done.
 	 */
-	public void playbackFinished() {
-		isPlaying = false;
+	public void stop() {
+		synchronized (stateLock) {
+			if (state.get() == PREPARING) {
+				stopRequested = true;
+				return;
+			}
+
+			if (state.get() != PLAYING) {
+				return;
+			}
+
+			state.set(STOPPING);
+		}
+
+		stopVoices();
 	}
-	
+
 	/**
 	 * Returns current player state
-	 * 
-	 * @return is playing
+	 *
+	 * @return is playing, also while a sound plays and the player is preparing another one
 	 */
 	public boolean isPlaying() {
-		return isPlaying;
+		final int current = state.get();
+		return current == PLAYING || (current == PREPARING && mixer.getVoiceCount() > 0);
+	}
+
+	/**
+	 * Returns the state of the player
+	 *
+	 * @return IDLE, PREPARING, PLAYING, STOPPING or CLOSED
+	 */
+	public int getState() {
+		return state.get();
+	}
+
+	/**
+	 * Returns number of sounds being played
+	 *
+	 * @return voices
+	 */
+	public int getVoiceCount() {
+		return mixer.getVoiceCount();
+	}
+
+	/**
+	 * Returns the lowest number of decoded samples waiting for output among the sounds being played
+	 *
+	 * @return samples, 0 when nothing plays
+	 */
+	public int getBufferFill() {
+		int fill = Integer.MAX_VALUE;
+		for (PcmPipeline pipeline : mixer.getVoices()) {
+			fill = Math.min(fill, pipeline.getBufferFill());
+		}
+
+		return (fill == Integer.MAX_VALUE) ? 0 : fill;
 	}
-	
+
 	/**
-	 * Disposes all allocated resources
+	 * Returns number of times the sounds being played ran out of decoded samples
+	 *
+	 * @return underruns
+	 */
+	public long getUnderruns() {
+		long underruns = 0;
+		for (PcmPipeline pipeline : mixer.getVoices()) {
+			underruns += pipeline.getUnderruns();
+		}
+
+		return underruns;
+	}
+
+	/**
+	 * Returns the counters of decoding and output, they're recorded only while enabled
+	 *
+	 * @return stats
+	 */
+	public DecoderStats getDecoderStats() {
+		return decoderStats;
+	}
+
+	/**
+	 * Disposes all allocated resources, the player cannot be used afterwards
 	 */
 	public void dispose() {
-		if (player == null) {
+		synchronized (stateLock) {
+			if (state.getAndSet(CLOSED) == CLOSED) {
+				return;
+			}
+
+			stateLock.notifyAll();
+		}
+
+		/**
+		 * A play() in progress stops its voice itself when it finds the player closed
+		 */
+		mixer.stopAll();
+		mixer.setHeld(false);
+		synchronized (this) {
+			closePrepared();
+		}
+
+		executor.shutdown();
+	}
+
+	/**
+	 * Moves to PREPARING from IDLE or PLAYING, a stop() in progress is waited for.
+	 * It's called under the lock of the player, so preparations don't overlap.
+	 *
+	 * @throws JavaLayerException when the player has been closed or the stop didn't finish in time
+	 */
+	private void enterPreparing() throws JavaLayerException {
+		synchronized (stateLock) {
+			final long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+			while (state.get() == STOPPING) {
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					throw new JavaLayerException("Player is still being stopped");
+				}
+
+				try {
+					stateLock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new JavaLayerException("Interrupted while the player was being stopped", e);
+				}
+			}
+
+			if (state.get() == CLOSED) {
+				throw new JavaLayerException("Player has been closed");
+			}
+
+			stopRequested = false;
+			state.set(PREPARING);
+		}
+	}
+
+	/**
+	 * Leaves PREPARING to PLAYING when there's a sound being played or to IDLE otherwise,
+	 * all sounds are stopped when stop() has been called meanwhile
+	 */
+	private void leavePreparing() {
+		synchronized (stateLock) {
+			if (state.get() != PREPARING) {
+				return;
+			}
+
+			if (!stopRequested) {
+				state.set((mixer.getVoiceCount() > 0) ? PLAYING : IDLE);
+				return;
+			}
+
+			stopRequested = false;
+			state.set(STOPPING);
+		}
+
+		stopVoices();
+	}
+
+	/**
+	 * Stops all voices in the STOPPING state and moves to IDLE
+	 */
+	private void stopVoices() {
+		mixer.stopAll();
+		synchronized (stateLock) {
+			state.compareAndSet(STOPPING, IDLE);
+			stateLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Creates the listener of a voice, it returns the player to IDLE after the last voice
+	 *
+	 * @param  playbackListener listener set by the caller or null
+	 * @return listener
+	 */
+	private PlaybackListener createVoiceListener(final PlaybackListener playbackListener) {
+		return new PlaybackListener() {
+			public void playbackStarted(PlaybackEvent event) {
+				if (playbackListener != null) {
+					playbackListener.playbackStarted(event);
+				}
+			}
+
+			public void playbackFinished(PlaybackEvent event) {
+				synchronized (stateLock) {
+					if (mixer.getVoiceCount() == 0) {
+						state.compareAndSet(PLAYING, IDLE);
+					}
+				}
+
+				if (playbackListener != null) {
+					playbackListener.playbackFinished(event);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Releases the pipeline which couldn't be played and leaves PREPARING
+	 *
+	 * @param pipeline or null
+	 */
+	private void failed(PcmPipeline pipeline) {
+		if (pipeline != null) {
+			pipeline.stop();
+		}
+
+		leavePreparing();
+	}
+
+	/**
+	 * Creates the pipeline for the current file and offset unless it's prepared already,
+	 * it's called in the PREPARING state
+	 *
+	 * @throws JavaLayerException when the file couldn't be decoded or the line opened
+	 * @throws FileNotFoundException when filename was not found
+	 */
+	private void prepareFile() throws JavaLayerException, FileNotFoundException {
+		if (mp3Filename == null) {
+			throw new IllegalStateException("Filename cannot be null");
+		}
+
+		if (mp3Filename.equals(preparedFilename) && startOffset == preparedOffset &&
+			(playlist == null ? preparedPlaylist == null : playlist.equals(preparedPlaylist)))
+		{
 			return;
 		}
-		
-		player.close();
-		player = null;
+
+		closePrepared();
+		IPcmSource source = null;
+		boolean prepared = false;
+		try {
+			if (playlist != null) {
+				final List<String> tracks = new ArrayList<String>(playlist);
+				if (!tracks.contains(mp3Filename)) {
+					tracks.add(0, mp3Filename);
+				}
+
+				source = new PlaylistPcmSource(tracks, tracks.indexOf(mp3Filename), pcmCache, executor, decoderStats);
+			} else {
+				source = PcmSourceFactory.open(mp3Filename, pcmCache, decoderStats);
+				if (pcmCache != null && !(source instanceof CachedPcmSource)) {
+					pcmCache.renderInBackground(mp3Filename);
+				}
+			}
+
+			if (startOffset > 0) {
+				source.seek(startOffset);
+			}
+
+			mixer.setHeld(true);
+			mixer.open(source.getSampleRate());
+			preparedPipeline = new PcmPipeline(source, executor);
+			preparedFilename = mp3Filename;
+			preparedOffset = startOffset;
+			preparedPlaylist = playlist;
+			prepared = true;
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new JavaLayerException(e.getMessage(), e);
+		} catch (LineUnavailableException e) {
+			throw new JavaLayerException("Audio line unavailable", e);
+		} finally {
+			if (!prepared && source != null) {
+				source.close();
+			}
+		}
+	}
+
+	/**
+	 * Releases the pipeline created by prepare()
+	 */
+	private void closePrepared() {
+		if (preparedPipeline != null) {
+			preparedPipeline.stop();
+		}
+
+		preparedFilename = null;
+		preparedPlaylist = null;
+		preparedPipeline = null;
 	}
 }
@@ -0,0 +1,302 @@
+package alarmclock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Title, artist, duration and bitrate of an MP3 file. Only the ID3 tags and
+ * frame headers are read, the duration comes from the Xing / VBRI header and
+ * from the seek table (see Mp3SeekTable) when the file has none. Results of
+ * the recently probed files are kept in memory while the file keeps its size
+ * and modification time.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.1
+ */
+public class Mp3Probe {
+	/**
+	 * Number of results kept in memory, a result takes about a hundred bytes, so
+	 * even the longest MRU list or playlist directory is probed only once
+	 */
+	private static final int MAX_CACHED = 1024;
+
+	/**
+	 * Probed files by path, least recently used first
+	 */
+	private static final Map<String, Mp3Probe> cache = new LinkedHashMap<String, Mp3Probe>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Mp3Probe> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+
+	/**
+	 * Size and modification time of the file when it was probed
+	 */
+	private final long length;
+	private final long lastModified;
+
+	/**
+	 * Tags, empty when unknown
+	 */
+	private final String title;
+	private final String artist;
+
+	/**
+	 * Length of the sound in milliseconds and average bitrate in kbit/s
+	 */
+	private final long duration;
+	private final int bitrate;
+
+	/**
+	 * Creates the result
+	 *
+	 * @param length
+	 * @param lastModified
+	 * @param title
+	 * @param artist
+	 * @param duration
+	 * @param bitrate
+	 */
+	private Mp3Probe(long length, long lastModified, String title, String artist, long duration, int bitrate) {
+		this.length = length;
+		this.lastModified = lastModified;
+		this.title = title;
+		this.artist = artist;
+		this.duration = duration;
+		this.bitrate = bitrate;
+	}
+
+	/**
+	 * Returns the result for the file, the file is probed when it's not cached or has been changed
+	 *
+	 * @param  filename
+	 * @return result
+	 *
+	 * @throws IOException when the file couldn't be read or contains no MP3 frame
+	 */
+	public static Mp3Probe get(String filename) throws IOException {
+		final File file = new File(filename);
+		final String key = file.getAbsolutePath();
+		synchronized (cache) {
+			final Mp3Probe probe = cache.get(key);
+			if (probe != null && probe.length == file.length() && probe.lastModified == file.lastModified()) {
+				return probe;
+			}
+		}
+
+		final Mp3Probe probe = probe(filename);
+		synchronized (cache) {
+			cache.put(key, probe);
+		}
+
+		return probe;
+	}
+
+	/**
+	 * Reads the tags and headers of the file
+	 *
+	 * @param  filename
+	 * @return result
+	 *
+	 * @throws IOException when the file couldn't be read or contains no MP3 frame
+	 */
+	public static Mp3Probe probe(String filename) throws IOException {
+		final File file = new File(filename);
+		final long lastModified = file.lastModified();
+		final MappedByteBuffer buffer = Mp3SeekTable.map(filename);
+		final String[] tags = {"", ""};
+		final int limit = buffer.limit();
+		final boolean id3v1 = limit >= 128 && Mp3SeekTable.hasTag(buffer, limit - 128, "TAG");
+		if (id3v1) {
+			tags[0] = readText(buffer, limit - 125, 30, 0);
+			tags[1] = readText(buffer, limit - 95, 30, 0);
+		}
+
+		final int start = Mp3SeekTable.skipId3v2(buffer);
+		if (start > 0) {
+			readId3v2(buffer, start, tags);
+		}
+
+		final int position = Mp3SeekTable.findFrame(buffer, start);
+		if (position < 0) {
+			throw new IOException("No MP3 frame found in " + filename);
+		}
+
+		final int header = buffer.getInt(position);
+		final long audioBytes = limit - position - (id3v1 ? 128 : 0);
+		final int frames = Mp3SeekTable.getInfoFrameCount(buffer, position, header);
+		final long duration;
+		if (frames > 0) {
+			duration = (long)frames * Mp3SeekTable.getSamplesPerFrame(header) * 1000 / Mp3SeekTable.getSampleRate(header);
+		} else {
+			duration = Mp3SeekTable.get(filename).getDuration();
+		}
+
+		final int bitrate = (duration > 0) ? (int)(audioBytes * 8 / duration) : 0;
+		return new Mp3Probe(buffer.capacity(), lastModified, tags[0], tags[1], duration, bitrate);
+	}
+
+	/**
+	 * Returns the title
+	 *
+	 * @return title, empty when unknown
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Returns the artist
+	 *
+	 * @return artist, empty when unknown
+	 */
+	public String getArtist() {
+		return artist;
+	}
+
+	/**
+	 * Returns the length of the sound
+	 *
+	 * @return milliseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns the average bitrate
+	 *
+	 * @return kbit/s
+	 */
+	public int getBitrate() {
+		return bitrate;
+	}
+
+	/**
+	 * Returns the result as "artist - title, m:ss, bitrate kbps"
+	 *
+	 * @return description
+	 */
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		if (artist.length() > 0) {
+			builder.append(artist).append(" - ");
+		}
+
+		if (title.length() > 0) {
+			builder.append(title).append(", ");
+		}
+
+		final long seconds = duration / 1000;
+		builder.append(seconds / 60).append(':').append((char)('0' + seconds % 60 / 10)).append((char)('0' + seconds % 10));
+		return builder.append(", ").append(bitrate).append(" kbps").toString();
+	}
+
+	/**
+	 * Reads TIT2 and TPE1 (TT2 and TP1 in version 2.2) frames of the ID3v2 tag
+	 *
+	 * @param buffer
+	 * @param end    position after the tag
+	 * @param tags   title and artist, they're replaced by the found frames
+	 */
+	private static void readId3v2(MappedByteBuffer buffer, int end, String[] tags) {
+		final int version = buffer.get(3);
+		final int idLength = (version == 2) ? 3 : 4;
+		final int headerLength = (version == 2) ? 6 : 10;
+		int position = 10;
+		if (version > 2 && (buffer.get(5) & 0x40) != 0 && position + 4 <= end) {
+			final int size = buffer.getInt(position);
+			position += (version == 4) ? syncsafe(size) : size + 4;
+		}
+
+		while (position + headerLength <= end && buffer.get(position) != 0) {
+			final StringBuilder id = new StringBuilder(idLength);
+			for (int i = 0; i < idLength; i++) {
+				id.append((char)buffer.get(position + i));
+			}
+
+			int size;
+			if (version == 2) {
+				size = ((buffer.get(position + 3) & 0xFF) << 16) | ((buffer.get(position + 4) & 0xFF) << 8) | (buffer.get(position + 5) & 0xFF);
+			} else {
+				size = buffer.getInt(position + 4);
+				if (version == 4) {
+					size = syncsafe(size);
+				}
+			}
+
+			final int data = position + headerLength;
+			if (size <= 0 || data + size > end) {
+				return;
+			}
+
+			final String name = id.toString();
+			if (name.equals("TIT2") || name.equals("TT2")) {
+				tags[0] = readText(buffer, data + 1, size - 1, buffer.get(data));
+			} else if (name.equals("TPE1") || name.equals("TP1")) {
+				tags[1] = readText(buffer, data + 1, size - 1, buffer.get(data));
+			}
+
+			position = data + size;
+		}
+	}
+
+	/**
+	 * Decodes a text of ID3 tag, trailing zeros and spaces are removed
+	 *
+	 * @param  buffer
+	 * @param  position
+	 * @param  length
+	 * @param  encoding ID3v2 text encoding, 0 for ID3v1
+	 * @return text
+	 */
+	private static String readText(MappedByteBuffer buffer, int position, int length, int encoding) {
+		final byte[] bytes = new byte[Math.max(0, length)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(position + i);
+		}
+
+		final String charset;
+		switch (encoding) {
+			case 1:
+				charset = "UTF-16";
+				break;
+			case 2:
+				charset = "UTF-16BE";
+				break;
+			case 3:
+				charset = "UTF-8";
+				break;
+			default:
+				charset = "ISO-8859-1";
+		}
+
+		try {
+			String text = new String(bytes, charset);
+			final int zero = text.indexOf('\0');
+			if (zero >= 0) {
+				text = text.substring(0, zero);
+			}
+
+			return text.trim();
+		} catch (UnsupportedEncodingException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Decodes a syncsafe integer, 7 bits in each byte
+	 *
+	 * @param  value
+	 * @return decoded value
+	 */
+	private static int syncsafe(int value) {
+		return (value & 0x7F) | ((value >> 1) & 0x3F80) | ((value >> 2) & 0x1FC000) | ((value >> 3) & 0xFE00000);
+	}
+}
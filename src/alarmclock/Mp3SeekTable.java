@@ -0,0 +1,420 @@
+package alarmclock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte offsets and timestamps of all frames of an MP3 file, built by a single
+ * pass over the frame headers. The Xing / Info / VBRI frame of VBR files is not
+ * audio, it's left out of the table and its frame count is used to size it.
+ * All frames of a file have the same number of samples, so the frame of any
+ * position is computed, not searched for.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.1
+ */
+public class Mp3SeekTable {
+	/**
+	 * Number of tables kept in memory, it matches the size of the MRU list in Settings
+	 */
+	private static final int MAX_CACHED = 10;
+
+	/**
+	 * Tables of recently played files by path, size and modification time, least recently used first
+	 */
+	private static final Map<String, Mp3SeekTable> cache = new LinkedHashMap<String, Mp3SeekTable>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Mp3SeekTable> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+
+	/**
+	 * Bitrates in kbit/s by index for MPEG-1 layer I, II, III and MPEG-2 / 2.5 layer I, II and III
+	 */
+	private static final int[][] BITRATES = {
+		{0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+		{0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+		{0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+		{0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+		{0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+	};
+
+	/**
+	 * Sample rates of MPEG-1 by index
+	 */
+	private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+	/**
+	 * Byte offsets and start times in milliseconds of the frames
+	 */
+	private final long[] offsets;
+	private final int[] timestamps;
+
+	/**
+	 * Format shared by all frames
+	 */
+	private final int sampleRate;
+	private final int samplesPerFrame;
+
+	/**
+	 * Creates the table
+	 *
+	 * @param offsets
+	 * @param timestamps
+	 * @param sampleRate
+	 * @param samplesPerFrame
+	 */
+	private Mp3SeekTable(long[] offsets, int[] timestamps, int sampleRate, int samplesPerFrame) {
+		this.offsets = offsets;
+		this.timestamps = timestamps;
+		this.sampleRate = sampleRate;
+		this.samplesPerFrame = samplesPerFrame;
+	}
+
+	/**
+	 * Returns the table of the file from the cache, the file is scanned when it's
+	 * not cached or has been changed since
+	 *
+	 * @param  filename
+	 * @return table
+	 *
+	 * @throws IOException when the file couldn't be read or contains no MP3 frame
+	 */
+	public static Mp3SeekTable get(String filename) throws IOException {
+		final File file = new File(filename);
+		final String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+		synchronized (cache) {
+			final Mp3SeekTable table = cache.get(key);
+			if (table != null) {
+				return table;
+			}
+		}
+
+		final Mp3SeekTable table = scan(filename);
+		synchronized (cache) {
+			cache.put(key, table);
+		}
+
+		return table;
+	}
+
+	/**
+	 * Builds the table of the file
+	 *
+	 * @param  filename
+	 * @return table
+	 *
+	 * @throws IOException when the file couldn't be read or contains no MP3 frame
+	 */
+	public static Mp3SeekTable scan(String filename) throws IOException {
+		final MappedByteBuffer buffer = map(filename);
+		final int limit = buffer.limit();
+		int position = findFrame(buffer, skipId3v2(buffer));
+		if (position < 0) {
+			throw new IOException("No MP3 frame found in " + filename);
+		}
+
+		final int first = buffer.getInt(position);
+		final int sampleRate = getSampleRate(first);
+		final int samplesPerFrame = getSamplesPerFrame(first);
+
+		int capacity = 1024;
+		final int infoFrames = getInfoFrameCount(buffer, position, first);
+		if (infoFrames >= 0) {
+			position += getFrameLength(first);
+
+			/**
+			 * The count in the header isn't trusted beyond what the rest of the file
+			 * can hold in frames of the lowest bitrate
+			 */
+			final int minFrameLength = getFrameLength((first & ~0xF200) | 0x1000);
+			capacity = Math.max(1, Math.min(infoFrames, (limit - position) / minFrameLength));
+		}
+
+		long[] offsets = new long[capacity];
+		int count = 0;
+		while (position >= 0 && position + 4 <= limit) {
+			final int header = buffer.getInt(position);
+			final int length = isCompatible(header, first) ? getFrameLength(header) : 0;
+			if (length == 0 || position + length > limit) {
+				position = findFrame(buffer, position + 1);
+				continue;
+			}
+
+			if (count == offsets.length) {
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+
+			offsets[count++] = position;
+			position += length;
+		}
+
+		if (count == 0) {
+			throw new IOException("No MP3 frame found in " + filename);
+		}
+
+		final int[] timestamps = new int[count];
+		for (int i = 0; i < count; i++) {
+			timestamps[i] = (int)((long)i * samplesPerFrame * 1000 / sampleRate);
+		}
+
+		return new Mp3SeekTable(Arrays.copyOf(offsets, count), timestamps, sampleRate, samplesPerFrame);
+	}
+
+	/**
+	 * Returns number of audio frames
+	 *
+	 * @return frames
+	 */
+	public int getFrameCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * Returns the byte offset of the frame
+	 *
+	 * @param  frame
+	 * @return offset from the start of the file
+	 */
+	public long getOffset(int frame) {
+		return offsets[frame];
+	}
+
+	/**
+	 * Returns the start time of the frame
+	 *
+	 * @param  frame
+	 * @return milliseconds
+	 */
+	public int getTimestamp(int frame) {
+		return timestamps[frame];
+	}
+
+	/**
+	 * Returns the frame which contains the specified time
+	 *
+	 * @param  millis time from the start
+	 * @return frame, the last one when the time is past the end
+	 */
+	public int frameAt(long millis) {
+		final long frame = Math.max(0, millis) * sampleRate / (1000L * samplesPerFrame);
+		return (int)Math.min(offsets.length - 1, frame);
+	}
+
+	/**
+	 * Returns the length of the sound
+	 *
+	 * @return milliseconds
+	 */
+	public long getDuration() {
+		return (long)offsets.length * samplesPerFrame * 1000 / sampleRate;
+	}
+
+	/**
+	 * Returns the sample rate of the frames
+	 *
+	 * @return Hz
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Returns number of samples per channel in each frame
+	 *
+	 * @return samples
+	 */
+	public int getSamplesPerFrame() {
+		return samplesPerFrame;
+	}
+
+	/**
+	 * Maps the whole file
+	 *
+	 * @param  filename
+	 * @return content
+	 *
+	 * @throws IOException when the file couldn't be opened or is larger than 2 GB
+	 */
+	static MappedByteBuffer map(String filename) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File " + filename + " is too large");
+			}
+
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the position after the ID3v2 tag
+	 *
+	 * @param  buffer
+	 * @return 0 when there's no tag
+	 */
+	static int skipId3v2(MappedByteBuffer buffer) {
+		if (buffer.limit() < 10 || buffer.get(0) != 'I' || buffer.get(1) != 'D' || buffer.get(2) != '3') {
+			return 0;
+		}
+
+		int size = 10;
+		for (int i = 6; i < 10; i++) {
+			size += (buffer.get(i) & 0x7F) << (7 * (9 - i));
+		}
+
+		if ((buffer.get(5) & 0x10) != 0) {
+			size += 10;
+		}
+
+		return Math.min(size, buffer.limit());
+	}
+
+	/**
+	 * Finds the next frame header, a header counts only when it's followed by
+	 * a compatible header or by the end of the file
+	 *
+	 * @param  buffer
+	 * @param  from
+	 * @return position or -1 when there's none
+	 */
+	static int findFrame(MappedByteBuffer buffer, int from) {
+		final int limit = buffer.limit();
+		for (int i = from; i + 4 <= limit; i++) {
+			if (buffer.get(i) != (byte)0xFF || (buffer.get(i + 1) & 0xE0) != 0xE0) {
+				continue;
+			}
+
+			final int header = buffer.getInt(i);
+			final int length = getFrameLength(header);
+			if (length == 0 || i + length > limit) {
+				continue;
+			}
+
+			if (i + length + 4 > limit || isCompatible(buffer.getInt(i + length), header)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the frame count of the Xing / Info / VBRI frame
+	 *
+	 * @param  buffer
+	 * @param  position position of the first frame
+	 * @param  header   header of the first frame
+	 * @return frame count, 0 when it's unknown or -1 when the frame is an audio frame
+	 */
+	static int getInfoFrameCount(MappedByteBuffer buffer, int position, int header) {
+		final boolean mpeg1 = ((header >>> 19) & 3) == 3;
+		final boolean mono = ((header >>> 6) & 3) == 3;
+		final int xing = position + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+		final int vbri = position + 36;
+		final int end = position + getFrameLength(header);
+		if (xing + 12 <= end && (hasTag(buffer, xing, "Xing") || hasTag(buffer, xing, "Info"))) {
+			return ((buffer.getInt(xing + 4) & 1) != 0) ? buffer.getInt(xing + 8) : 0;
+		}
+
+		if (vbri + 18 <= end && hasTag(buffer, vbri, "VBRI")) {
+			return buffer.getInt(vbri + 14);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Compares bytes at the position with the tag
+	 *
+	 * @param  buffer
+	 * @param  position
+	 * @param  tag
+	 * @return true when they're equal
+	 */
+	static boolean hasTag(MappedByteBuffer buffer, int position, String tag) {
+		for (int i = 0; i < tag.length(); i++) {
+			if (buffer.get(position + i) != tag.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns true when the header is valid and has the version, layer and sample rate of the first one
+	 *
+	 * @param  header
+	 * @param  first
+	 * @return compatible
+	 */
+	private static boolean isCompatible(int header, int first) {
+		return (header & 0xFFFE0C00) == (first & 0xFFFE0C00) && getFrameLength(header) > 0;
+	}
+
+	/**
+	 * Returns the length of the frame including the header
+	 *
+	 * @param  header
+	 * @return bytes or 0 when the header isn't valid or uses free bitrate
+	 */
+	static int getFrameLength(int header) {
+		if ((header & 0xFFE00000) != 0xFFE00000) {
+			return 0;
+		}
+
+		final int version = (header >>> 19) & 3;
+		final int layer = 4 - ((header >>> 17) & 3);
+		final int bitrateIndex = (header >>> 12) & 15;
+		if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || ((header >>> 10) & 3) == 3) {
+			return 0;
+		}
+
+		final int bitrate = BITRATES[(version == 3) ? layer - 1 : Math.min(layer + 2, 4)][bitrateIndex] * 1000;
+		final int sampleRate = getSampleRate(header);
+		final int padding = (header >>> 9) & 1;
+		if (layer == 1) {
+			return (12 * bitrate / sampleRate + padding) * 4;
+		}
+
+		return getSamplesPerFrame(header) / 8 * bitrate / sampleRate + padding;
+	}
+
+	/**
+	 * Returns the sample rate of a valid header
+	 *
+	 * @param  header
+	 * @return Hz
+	 */
+	static int getSampleRate(int header) {
+		final int version = (header >>> 19) & 3;
+		return SAMPLE_RATES[(header >>> 10) & 3] >> ((version == 3) ? 0 : ((version == 2) ? 1 : 2));
+	}
+
+	/**
+	 * Returns number of samples per channel of a valid header
+	 *
+	 * @param  header
+	 * @return samples
+	 */
+	static int getSamplesPerFrame(int header) {
+		final int layer = 4 - ((header >>> 17) & 3);
+		if (layer == 1) {
+			return 384;
+		}
+
+		return (layer == 3 && ((header >>> 19) & 3) != 3) ? 576 : 1152;
+	}
+}
@@ -0,0 +1,389 @@
+package alarmclock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes an MP3 file on several threads. The file is split at frame boundaries
+ * (see Mp3SeekTable) into segments which are decoded in parallel. Every segment
+ * starts with warm-up frames which are decoded and dropped: enough of them to
+ * refill the bit reservoir of layer III and the overlap of the frame before
+ * the segment. The segments are written in order, so the output is the same
+ * as the output of sequential decoding by Mp3PcmSource.
+ *
+ * A frame which reads more main data than the frames before it provide makes
+ * JLayer skip the following frames until the reservoir catches up, so a broken
+ * file may decode differently from the middle. The warm-up frames of every
+ * segment are therefore compared with the last frames of the previous segment
+ * and write() fails when they differ. A skipped frame may also change the
+ * output only long after the warm-up, so write() fails as well when a frame
+ * decodes to no samples after an earlier frame of the segment had some,
+ * which never happens in a well-formed stream.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.1
+ */
+public class Mp3SegmentRenderer {
+	/**
+	 * Number of frames of a segment (about 6.7 s of 44.1 kHz)
+	 */
+	public static final int SEGMENT_FRAMES = 256;
+
+	/**
+	 * Largest distance of the main data of a frame from its header in bytes (main_data_begin)
+	 */
+	private static final int MAX_RESERVOIR = 511;
+
+	/**
+	 * Largest part of a frame which isn't main data: header, CRC and side information
+	 */
+	private static final int MAX_FRAME_OVERHEAD = 38;
+
+	/**
+	 * Largest number of samples of a decoded frame
+	 */
+	private static final int MAX_FRAME_SAMPLES = 1152 * 2;
+
+	/**
+	 * Decoded segment
+	 */
+	private static class Segment {
+		/**
+		 * Format of the samples
+		 */
+		final int sampleRate;
+		final int channels;
+
+		/**
+		 * Samples and their number
+		 */
+		final short[] samples;
+		final int length;
+
+		/**
+		 * Number of samples of every frame of the segment and number of the frames
+		 */
+		final int[] frameLengths;
+		final int frames;
+
+		/**
+		 * True when the stream has ended before the end of the segment
+		 */
+		final boolean ended;
+
+		/**
+		 * Output of the warm-up frames, the oldest first, they end with the frame
+		 * before the segment. It's empty for the first segment, a frame is null when
+		 * the stream has ended before it.
+		 */
+		final short[][] warmup;
+
+		/**
+		 * Creates the segment
+		 *
+		 * @param sampleRate
+		 * @param channels
+		 * @param samples
+		 * @param length
+		 * @param frameLengths
+		 * @param frames
+		 * @param ended
+		 * @param warmup
+		 */
+		Segment(int sampleRate, int channels, short[] samples, int length, int[] frameLengths, int frames, boolean ended, short[][] warmup) {
+			this.sampleRate = sampleRate;
+			this.channels = channels;
+			this.samples = samples;
+			this.length = length;
+			this.frameLengths = frameLengths;
+			this.frames = frames;
+			this.ended = ended;
+			this.warmup = warmup;
+		}
+
+		/**
+		 * Compares the warm-up frames with the last frames of the previous segment,
+		 * from the frame before the segment back to the first frame with output
+		 *
+		 * @param  previous
+		 * @return true when the decoder reached the state of the previous segment
+		 */
+		boolean follows(Segment previous) {
+			int offset = previous.length;
+			for (int i = warmup.length - 1, frame = previous.frames - 1; i >= 0 && frame >= 0; i--, frame--) {
+				final int frameLength = previous.frameLengths[frame];
+				offset -= frameLength;
+				if (warmup[i] == null || warmup[i].length != frameLength) {
+					return false;
+				}
+
+				for (int j = 0; j < frameLength; j++) {
+					if (warmup[i][j] != previous.samples[offset + j]) {
+						return false;
+					}
+				}
+
+				if (frameLength > 0) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * The file and its seek table
+	 */
+	private final String filename;
+	private final Mp3SeekTable table;
+
+	/**
+	 * Decodes the segments
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Number of segments decoded ahead of the one being written
+	 */
+	private final int window;
+
+	/**
+	 * Reads the seek table of the file
+	 *
+	 * @param  filename
+	 * @param  executor decodes the segments
+	 * @param  threads  number of threads of the executor
+	 *
+	 * @throws IOException when the file couldn't be read or contains no MP3 frame
+	 */
+	public Mp3SegmentRenderer(String filename, ExecutorService executor, int threads) throws IOException {
+		this.filename = filename;
+		this.executor = executor;
+		this.window = Math.max(1, threads) * 2;
+		table = Mp3SeekTable.get(filename);
+	}
+
+	/**
+	 * Returns number of segments of the file
+	 *
+	 * @return segments
+	 */
+	public int getSegmentCount() {
+		return (table.getFrameCount() + SEGMENT_FRAMES - 1) / SEGMENT_FRAMES;
+	}
+
+	/**
+	 * Decodes the file and writes the header and the samples in the format of CachedPcmSource
+	 *
+	 * @param  channel destination, it's written from position 0
+	 * @return number of samples written
+	 *
+	 * @throws IOException when a segment couldn't be decoded or the channel written
+	 */
+	public long write(FileChannel channel) throws IOException {
+		final int count = getSegmentCount();
+		final LinkedList<Future<Segment>> queue = new LinkedList<Future<Segment>>();
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(SEGMENT_FRAMES * MAX_FRAME_SAMPLES * 2).order(ByteOrder.LITTLE_ENDIAN);
+		int next = 0;
+		Segment previous = null;
+		int sampleRate = 0;
+		int channels = 0;
+		long length = 0;
+		try {
+			while (next < count && queue.size() < window) {
+				queue.add(submit(next++));
+			}
+
+			while (!queue.isEmpty()) {
+				final Segment segment = get(queue.removeFirst());
+				if (previous != null && !segment.follows(previous)) {
+					throw new IOException("Segments of " + filename + " don't match, the stream is damaged");
+				}
+
+				if (channels == 0) {
+					sampleRate = segment.sampleRate;
+					channels = segment.channels;
+				} else if (segment.sampleRate != sampleRate || segment.channels != channels) {
+					throw new IOException("Format of " + filename + " changes");
+				}
+
+				long position = CachedPcmSource.HEADER_SIZE + length * 2;
+				for (int offset = 0; offset < segment.length; ) {
+					final int chunk = Math.min(segment.length - offset, buffer.capacity() / 2);
+					buffer.clear();
+					buffer.asShortBuffer().put(segment.samples, offset, chunk);
+					buffer.limit(chunk * 2);
+					while (buffer.hasRemaining()) {
+						position += channel.write(buffer, position);
+					}
+
+					offset += chunk;
+				}
+
+				length += segment.length;
+				previous = segment;
+				if (segment.ended) {
+					break;
+				}
+
+				if (next < count) {
+					queue.add(submit(next++));
+				}
+			}
+		} finally {
+			for (Future<Segment> future : queue) {
+				future.cancel(true);
+			}
+		}
+
+		if (length > (Integer.MAX_VALUE - CachedPcmSource.HEADER_SIZE) / 2) {
+			throw new IOException("Sound is too long to be cached");
+		}
+
+		buffer.clear();
+		buffer.putInt(CachedPcmSource.MAGIC).putInt(sampleRate).putInt(channels).putInt((int)length).flip();
+		channel.write(buffer, 0);
+		return length;
+	}
+
+	/**
+	 * Submits decoding of the segment
+	 *
+	 * @param  index
+	 * @return result
+	 */
+	private Future<Segment> submit(final int index) {
+		return executor.submit(new Callable<Segment>() {
+			public Segment call() throws IOException {
+				return decode(index);
+			}
+		});
+	}
+
+	/**
+	 * Waits for the segment
+	 *
+	 * @param  future
+	 * @return segment
+	 *
+	 * @throws IOException when the segment couldn't be decoded or the thread has been interrupted
+	 */
+	private static Segment get(Future<Segment> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Rendering interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+
+			throw new IOException("Unable to decode segment: " + e.getCause());
+		}
+	}
+
+	/**
+	 * Decodes the frames of the segment, the last segment is decoded to the end of the stream
+	 *
+	 * @param  index
+	 * @return segment
+	 *
+	 * @throws IOException when the file couldn't be decoded
+	 */
+	private Segment decode(int index) throws IOException {
+		final int first = index * SEGMENT_FRAMES;
+		final int end = Math.min(first + SEGMENT_FRAMES, table.getFrameCount());
+		final boolean last = (end == table.getFrameCount());
+		final Mp3PcmSource source = new Mp3PcmSource(filename);
+		try {
+			final int warmupFrames = getWarmupFrames(first);
+			final short[][] warmup = new short[warmupFrames][];
+			final short[] frameSamples = new short[MAX_FRAME_SAMPLES];
+			boolean ended = !source.seekFrame(table, first - warmupFrames, 0);
+			boolean started = false;
+			for (int i = 0; !ended && i < warmupFrames; i++) {
+				final int count = source.readFrame(frameSamples, 0);
+				if (count < 0) {
+					ended = true;
+				} else {
+					checkSkipped(first - warmupFrames + i, count, started);
+					started |= (count > 0);
+					warmup[i] = Arrays.copyOf(frameSamples, count);
+				}
+			}
+
+			short[] samples = new short[(end - first) * MAX_FRAME_SAMPLES];
+			int[] frameLengths = new int[end - first];
+			int length = 0;
+			int frames = 0;
+			while (!ended && (last || first + frames < end)) {
+				if (frames == frameLengths.length) {
+					frameLengths = Arrays.copyOf(frameLengths, frames * 2);
+					samples = Arrays.copyOf(samples, samples.length * 2);
+				}
+
+				final int count = source.readFrame(samples, length);
+				if (count < 0) {
+					ended = true;
+				} else {
+					checkSkipped(first + frames, count, started);
+					started |= (count > 0);
+					length += count;
+					frameLengths[frames++] = count;
+				}
+			}
+
+			return new Segment(source.getSampleRate(), source.getChannels(), samples, length, frameLengths, frames, ended, warmup);
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * Fails when the decoder skipped the frame although it had decoded an earlier one
+	 *
+	 * @param  frame   index of the frame
+	 * @param  count   number of decoded samples
+	 * @param  started true when an earlier frame had samples
+	 *
+	 * @throws IOException when the frame was skipped
+	 */
+	private void checkSkipped(int frame, int count, boolean started) throws IOException {
+		if (started && count == 0) {
+			throw new IOException("Frame " + frame + " of " + filename + " was skipped, the stream is damaged");
+		}
+	}
+
+	/**
+	 * Returns number of frames decoded and dropped before the frame: the two frames
+	 * before it, the frames holding the bit reservoir of the earlier one and one more
+	 * frame, so the frame before the target (the check frame) is decoded exactly
+	 *
+	 * @param  target index of the first frame of a segment
+	 * @return frames
+	 */
+	private int getWarmupFrames(int target) {
+		if (target == 0) {
+			return 0;
+		}
+
+		int first = Math.max(0, target - 2);
+		int reservoir = 0;
+		while (first > 0 && reservoir < MAX_RESERVOIR) {
+			reservoir += (int)(table.getOffset(first) - table.getOffset(first - 1)) - MAX_FRAME_OVERHEAD;
+			first--;
+		}
+
+		return Math.min(target, target - first + 1);
+	}
+}
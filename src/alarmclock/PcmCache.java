@@ -0,0 +1,361 @@
+package alarmclock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Disk cache of decoded PCM. Every sound file is decoded once into a cache file
+ * named after its path, size and modification time, the playback then maps the
+ * cache file (see CachedPcmSource). The least recently used files are deleted
+ * when the cache exceeds its byte budget. Long files are decoded by segments
+ * on all processors (see Mp3SegmentRenderer).
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.2
+ */
+public class PcmCache {
+	/**
+	 * Extension of cache files
+	 */
+	private static final String EXTENSION = ".pcm";
+
+	/**
+	 * Extension of files being rendered and the age in milliseconds after which
+	 * such a file is a leftover of a rendering which never finished
+	 */
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+	private static final long TEMPORARY_MAX_AGE = 3600000;
+
+	/**
+	 * Number of threads decoding segments of a file and their keepalive in seconds
+	 */
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final long THREAD_KEEP_ALIVE = 30;
+
+	/**
+	 * Directory with cache files
+	 */
+	private final File directory;
+
+	/**
+	 * Maximum size of all cache files in bytes
+	 */
+	private final long budget;
+
+	/**
+	 * Files queued or being rendered
+	 */
+	private final Set<String> pending = new HashSet<String>();
+
+	/**
+	 * Background thread rendering files to the cache
+	 */
+	private Thread renderer = null;
+
+	/**
+	 * Decodes segments of the file being rendered, null until the first parallel rendering
+	 */
+	private ExecutorService segmentExecutor = null;
+
+	/**
+	 * Creates the cache
+	 *
+	 * @param directory directory with cache files, it's created when needed
+	 * @param budget    maximum size of all cache files in bytes
+	 */
+	public PcmCache(String directory, long budget) {
+		if (directory == null) {
+			throw new IllegalArgumentException("Directory cannot be null.");
+		}
+
+		this.directory = new File(directory);
+		this.budget = budget;
+	}
+
+	/**
+	 * Opens the cached PCM of the sound file
+	 *
+	 * @param  filename sound file
+	 * @return mapped PCM or null when the file isn't cached
+	 */
+	public IPcmSource open(String filename) {
+		final File cacheFile = getCacheFile(filename);
+		if (cacheFile == null || !cacheFile.isFile()) {
+			return null;
+		}
+
+		try {
+			final IPcmSource source = new CachedPcmSource(cacheFile.getPath());
+			cacheFile.setLastModified(System.currentTimeMillis());
+			return source;
+		} catch (IOException e) {
+			cacheFile.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true when the sound file is in the cache
+	 *
+	 * @param  filename sound file
+	 * @return cached
+	 */
+	public boolean contains(String filename) {
+		final File cacheFile = getCacheFile(filename);
+		return cacheFile != null && cacheFile.isFile();
+	}
+
+	/**
+	 * Renders the sound file to the cache on the background thread, nothing
+	 * happens when it's cached or queued already or when it's not an MP3 file
+	 *
+	 * @param filename sound file
+	 */
+	public synchronized void renderInBackground(final String filename) {
+		if (filename == null || !PcmSourceFactory.needsDecoding(filename) || contains(filename) || !pending.add(filename)) {
+			return;
+		}
+
+		final Thread previous = renderer;
+		renderer = new Thread("PcmCache") {
+			public void run() {
+				try {
+					if (previous != null) {
+						previous.join();
+					}
+
+					render(filename);
+				} catch (Throwable e) {
+					e.printStackTrace();
+				} finally {
+					synchronized (PcmCache.this) {
+						pending.remove(filename);
+					}
+				}
+			}
+		};
+		renderer.setDaemon(true);
+		renderer.setPriority(Thread.MIN_PRIORITY);
+		renderer.start();
+	}
+
+	/**
+	 * Decodes the sound file to the cache and evicts the least recently used files
+	 *
+	 * @param  filename sound file
+	 *
+	 * @throws IOException when the file couldn't be decoded or the cache written
+	 */
+	public void render(String filename) throws IOException {
+		final File cacheFile = getCacheFile(filename);
+		if (cacheFile == null || cacheFile.isFile()) {
+			return;
+		}
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Couldn't create directory '" + directory + "'");
+		}
+
+		final File temporary = new File(directory, cacheFile.getName() + TEMPORARY_EXTENSION);
+		boolean renamed = false;
+		try {
+			final FileOutputStream os = new FileOutputStream(temporary);
+			try {
+				if (!writeSegments(filename, os.getChannel())) {
+					final IPcmSource source = new Mp3PcmSource(filename);
+					try {
+						write(source, os.getChannel());
+					} finally {
+						source.close();
+					}
+				}
+			} finally {
+				os.close();
+			}
+
+			renamed = temporary.length() <= budget && temporary.renameTo(cacheFile);
+		} finally {
+			if (!renamed) {
+				temporary.delete();
+			}
+		}
+
+		if (renamed) {
+			evict(cacheFile);
+		}
+	}
+
+	/**
+	 * Decodes the file on all processors (see Mp3SegmentRenderer), nothing is written
+	 * when there's a single processor or the file is short
+	 *
+	 * @param  filename sound file
+	 * @param  channel  destination
+	 * @return false when the file has to be decoded sequentially
+	 *
+	 * @throws IOException when the channel couldn't be truncated after a failure
+	 */
+	private boolean writeSegments(String filename, FileChannel channel) throws IOException {
+		if (THREADS < 2) {
+			return false;
+		}
+
+		try {
+			final Mp3SegmentRenderer renderer = new Mp3SegmentRenderer(filename, getSegmentExecutor(), THREADS);
+			if (renderer.getSegmentCount() < 2) {
+				return false;
+			}
+
+			renderer.write(channel);
+			return true;
+		} catch (IOException e) {
+			channel.truncate(0);
+			channel.position(0);
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the executor decoding segments, it's created on demand
+	 *
+	 * @return executor
+	 */
+	private synchronized ExecutorService getSegmentExecutor() {
+		if (segmentExecutor == null) {
+			final ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger(0);
+
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, "PcmCache-segment-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+			pool.allowCoreThreadTimeOut(true);
+			segmentExecutor = pool;
+		}
+
+		return segmentExecutor;
+	}
+
+	/**
+	 * Writes the header and all samples of the source
+	 *
+	 * @param source
+	 * @param channel
+	 *
+	 * @throws IOException
+	 */
+	private static void write(IPcmSource source, FileChannel channel) throws IOException {
+		final short[] samples = new short[8192];
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(CachedPcmSource.MAGIC).putInt(source.getSampleRate()).putInt(source.getChannels()).putInt(0);
+		buffer.flip();
+		channel.write(buffer);
+
+		long length = 0;
+		int count;
+		while ((count = source.read(samples, 0, samples.length)) >= 0) {
+			buffer.clear();
+			buffer.asShortBuffer().put(samples, 0, count);
+			buffer.limit(count * 2);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+			length += count;
+		}
+
+		if (length > (Integer.MAX_VALUE - CachedPcmSource.HEADER_SIZE) / 2) {
+			throw new IOException("Sound is too long to be cached");
+		}
+
+		buffer.clear();
+		buffer.putInt((int)length).flip();
+		channel.write(buffer, 12);
+	}
+
+	/**
+	 * Deletes the least recently used cache files until the cache fits the budget,
+	 * temporary files left by a rendering which never finished are deleted as well
+	 *
+	 * @param keep file which is never deleted
+	 */
+	private synchronized void evict(File keep) {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		final long now = System.currentTimeMillis();
+		long total = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(EXTENSION)) {
+				total += file.length();
+			} else if (file.getName().endsWith(TEMPORARY_EXTENSION) && now - file.lastModified() > TEMPORARY_MAX_AGE) {
+				file.delete();
+			}
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				final long x = a.lastModified();
+				final long y = b.lastModified();
+				return (x < y) ? -1 : ((x == y) ? 0 : 1);
+			}
+		});
+
+		for (int i = 0; i < files.length && total > budget; i++) {
+			if (files[i].equals(keep) || !files[i].getName().endsWith(EXTENSION)) {
+				continue;
+			}
+
+			final long length = files[i].length();
+			if (files[i].delete()) {
+				total -= length;
+			}
+		}
+	}
+
+	/**
+	 * Returns the cache file of the sound file, named after its path, size and modification time
+	 *
+	 * @param  filename sound file
+	 * @return cache file or null when the sound file doesn't exist
+	 */
+	private File getCacheFile(String filename) {
+		final File file = new File(filename);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		final String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+			return new File(directory, String.format("%040x", new BigInteger(1, digest)) + EXTENSION);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package alarmclock;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Sums any number of voices (see PcmPipeline) into one stereo audio line on a
+ * single output task. Every voice is converted to the format of the line and
+ * mixed with its own gain, the sum is clipped to 16 bits. The line is opened in
+ * the sample rate of the first voice and closed when the last voice has ended,
+ * unless it's held open for a voice which has been prepared (see setHeld()).
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class PcmMixer {
+	/**
+	 * Number of frames mixed at once (about 23 ms at 44.1 kHz)
+	 */
+	private static final int CHUNK_FRAMES = 1024;
+
+	/**
+	 * Channels of the line
+	 */
+	private static final int CHANNELS = 2;
+
+	/**
+	 * How long the output task parks when no voice has decoded samples
+	 */
+	private static final long STARVED_PARK = 1000000;
+
+	/**
+	 * Runs the output task and delivers the end of voices
+	 */
+	private final Executor executor;
+
+	/**
+	 * Voices being mixed
+	 */
+	private final List<PcmPipeline> voices = new CopyOnWriteArrayList<PcmPipeline>();
+
+	/**
+	 * Opened line and its sample rate, line is null when it's closed
+	 */
+	private SourceDataLine line = null;
+	private int sampleRate = 0;
+
+	/**
+	 * True while the output task is queued or running
+	 */
+	private boolean running = false;
+
+	/**
+	 * True while the line is kept open without voices
+	 */
+	private boolean held = false;
+
+	/**
+	 * Creates the mixer, the line is opened with the first voice
+	 *
+	 * @param executor runs the output task
+	 */
+	public PcmMixer(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Opens the line unless it's opened already, it lets the caller pay for
+	 * opening the line before the voice is added
+	 *
+	 * @param  sampleRate used when the line isn't opened, voices of other rates are resampled
+	 *
+	 * @throws LineUnavailableException when the line couldn't be opened
+	 */
+	public synchronized void open(int sampleRate) throws LineUnavailableException {
+		if (line != null) {
+			return;
+		}
+
+		final AudioFormat format = new AudioFormat(sampleRate, 16, CHANNELS, true, false);
+		final SourceDataLine newLine;
+		try {
+			newLine = AudioSystem.getSourceDataLine(format);
+		} catch (IllegalArgumentException e) {
+			throw new LineUnavailableException("No line for " + format);
+		}
+
+		newLine.open(format);
+		line = newLine;
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Keeps the line open when the last voice ends, so a prepared voice doesn't pay
+	 * for opening the line again when another voice ends before it's added
+	 *
+	 * @param held false closes the line when no voice is being mixed
+	 */
+	public synchronized void setHeld(boolean held) {
+		this.held = held;
+		if (!held && !running && line != null) {
+			line.close();
+			line = null;
+		}
+	}
+
+	/**
+	 * Adds the voice to the mix, the line is opened when needed
+	 *
+	 * @param  voice
+	 *
+	 * @throws LineUnavailableException when the line couldn't be opened
+	 */
+	public void add(PcmPipeline voice) throws LineUnavailableException {
+		synchronized (this) {
+			open(voice.getSampleRate());
+			voices.add(voice);
+			if (!running) {
+				running = true;
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							output();
+						}
+					});
+				} catch (RuntimeException e) {
+					running = false;
+					voices.remove(voice);
+					throw e;
+				}
+			}
+		}
+
+		voice.fireStarted();
+	}
+
+	/**
+	 * Stops all voices, samples queued in the line are dropped
+	 */
+	public synchronized void stopAll() {
+		for (PcmPipeline voice : voices) {
+			voice.stop();
+		}
+
+		if (line != null) {
+			line.stop();
+			line.flush();
+		}
+	}
+
+	/**
+	 * Returns voices being mixed
+	 *
+	 * @return voices
+	 */
+	public List<PcmPipeline> getVoices() {
+		return voices;
+	}
+
+	/**
+	 * Returns number of voices being mixed
+	 *
+	 * @return voices
+	 */
+	public int getVoiceCount() {
+		return voices.size();
+	}
+
+	/**
+	 * Output task: mixes the voices to the line until the last one ends
+	 */
+	private void output() {
+		final int[] mix = new int[CHUNK_FRAMES * CHANNELS];
+		final byte[] pcm = new byte[mix.length * 2];
+		SourceDataLine outputLine = null;
+		int outputRate = 0;
+		try {
+			while (true) {
+				if (voices.isEmpty()) {
+					if (outputLine != null) {
+						outputLine.drain();
+					}
+
+					synchronized (this) {
+						if (voices.isEmpty()) {
+							if (line != null && !held) {
+								line.close();
+								line = null;
+							}
+
+							running = false;
+							return;
+						}
+					}
+				}
+
+				synchronized (this) {
+					outputLine = line;
+					outputRate = sampleRate;
+				}
+
+				Arrays.fill(mix, 0);
+				int frames = 0;
+				for (PcmPipeline voice : voices) {
+					final int produced = voice.mix(mix, CHUNK_FRAMES, outputRate, CHANNELS);
+					if (produced < 0) {
+						finished(voice);
+					}
+
+					frames = Math.max(frames, produced);
+				}
+
+				if (frames == 0) {
+					LockSupport.parkNanos(STARVED_PARK);
+					continue;
+				}
+
+				for (int i = 0, j = 0; i < frames * CHANNELS; i++) {
+					final int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+					pcm[j++] = (byte)sample;
+					pcm[j++] = (byte)(sample >> 8);
+				}
+
+				outputLine.start();
+				outputLine.write(pcm, 0, frames * CHANNELS * 2);
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			synchronized (this) {
+				for (PcmPipeline voice : voices) {
+					voice.stop();
+					finished(voice);
+				}
+
+				if (line != null) {
+					line.close();
+					line = null;
+				}
+
+				running = false;
+			}
+		}
+	}
+
+	/**
+	 * Removes the voice and notifies its listener on another thread, so a slow
+	 * listener doesn't stall the other voices
+	 *
+	 * @param voice
+	 */
+	private void finished(final PcmPipeline voice) {
+		if (!voices.remove(voice)) {
+			return;
+		}
+
+		final Runnable notification = new Runnable() {
+			public void run() {
+				voice.fireFinished();
+			}
+		};
+
+		try {
+			executor.execute(notification);
+		} catch (RuntimeException e) {
+			notification.run();
+		}
+	}
+}
@@ -0,0 +1,467 @@
+package alarmclock;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javazoom.jl.player.advanced.PlaybackEvent;
+import javazoom.jl.player.advanced.PlaybackListener;
+
+/**
+ * Single voice of PcmMixer. A decoder task reads the source into a ring buffer
+ * as soon as the pipeline is created, the output thread of the mixer takes the
+ * samples from the ring buffer in mix(), converts them to the format of the line
+ * and adds them to the mix with the gain of the voice and of its fade-in ramp
+ * (see GainRamp), both are combined once per chunk. A slow frame or a GC
+ * pause of the decoder is absorbed by the buffered samples.
+ *
+ * The decoder task doesn't wait for free space, it exits when the ring buffer is
+ * full and mix() submits it again when the ring buffer is half empty, so idle
+ * voices hold no thread of the executor.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.4
+ */
+public class PcmPipeline {
+	/**
+	 * Capacity of the ring buffer in samples (about 1.5 s of 44.1 kHz stereo)
+	 */
+	private static final int RING_CAPACITY = 1 << 17;
+
+	/**
+	 * Number of samples decoded at once
+	 */
+	private static final int CHUNK = 4096;
+
+	/**
+	 * Fixed-point scale of the gain and the unity gain
+	 */
+	static final int GAIN_SHIFT = 12;
+	static final int UNITY_GAIN = 1 << GAIN_SHIFT;
+
+	/**
+	 * Source of the samples and the ring buffer
+	 */
+	private final IPcmSource source;
+	private final PcmRingBuffer ring = new PcmRingBuffer(RING_CAPACITY);
+
+	/**
+	 * Format of the source
+	 */
+	private final int sampleRate;
+	private final int channels;
+
+	/**
+	 * Runs the decoder task
+	 */
+	private final Executor executor;
+
+	/**
+	 * True while the decoder task is queued or running, it stays true after the source has been closed
+	 */
+	private final AtomicBoolean decoding = new AtomicBoolean(false);
+
+	/**
+	 * Decoded chunk which didn't fit the ring buffer yet, it's used by the decoder task only
+	 */
+	private final short[] chunk = new short[CHUNK];
+	private int chunkOffset = 0;
+	private int chunkLength = 0;
+
+	/**
+	 * Samples taken from the ring buffer and not mixed yet, used by the output thread only
+	 */
+	private final short[] input = new short[CHUNK];
+	private int inputPosition = 0;
+	private int inputLength = 0;
+
+	/**
+	 * State of the resampling: the frames around the output position, how many of them
+	 * have been read and the position between them, used by the output thread only
+	 */
+	private final int[] currentFrame = new int[2];
+	private final int[] nextFrame = new int[2];
+	private final int[] frame = new int[2];
+	private int primedFrames = 0;
+	private double phase = 0;
+
+	/**
+	 * Gain in fixed point, 1 << GAIN_SHIFT is unity
+	 */
+	private volatile int gain = UNITY_GAIN;
+
+	/**
+	 * Fade-in applied from the first mixed frame or null
+	 */
+	private volatile GainRamp gainRamp = null;
+
+	/**
+	 * Listener notified about start and end of the voice or null
+	 */
+	private volatile PlaybackListener listener = null;
+
+	/**
+	 * True when the pipeline has to finish
+	 */
+	private volatile boolean stopRequested = false;
+
+	/**
+	 * Number of times mix() found the ring buffer empty before the end of source
+	 */
+	private volatile long underruns = 0;
+
+	/**
+	 * Number of frames mixed so far
+	 */
+	private volatile long mixedFrames = 0;
+
+	/**
+	 * Receives buffer depth, underruns and the time to the first sample or null
+	 */
+	private volatile DecoderStats stats = null;
+
+	/**
+	 * System.nanoTime() when the playback was requested, 0 after the first sample has been recorded
+	 */
+	private volatile long requested = 0;
+
+	/**
+	 * Starts filling the ring buffer
+	 *
+	 * @param source
+	 * @param executor runs the decoder task
+	 */
+	public PcmPipeline(IPcmSource source, Executor executor) {
+		this.source = source;
+		this.executor = executor;
+		sampleRate = source.getSampleRate();
+		channels = source.getChannels();
+		refill();
+	}
+
+	/**
+	 * Returns the sample rate of the source
+	 *
+	 * @return Hz
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Returns number of channels of the source
+	 *
+	 * @return 1 or 2
+	 */
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * Sets the gain the samples are mixed with
+	 *
+	 * @param gain 1 keeps the samples unchanged
+	 */
+	public void setGain(float gain) {
+		this.gain = Math.round(Math.max(0, gain) * UNITY_GAIN);
+	}
+
+	/**
+	 * Returns the gain the samples are mixed with
+	 *
+	 * @return gain
+	 */
+	public float getGain() {
+		return gain / (float)UNITY_GAIN;
+	}
+
+	/**
+	 * Sets the fade-in of the voice, it starts with the first mixed frame
+	 *
+	 * @param gainRamp or null to play at full gain
+	 */
+	public void setGainRamp(GainRamp gainRamp) {
+		this.gainRamp = gainRamp;
+	}
+
+	/**
+	 * Sets the listener notified by the mixer about start and end of the voice
+	 *
+	 * @param listener or null
+	 */
+	public void setPlaybackListener(PlaybackListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the counters of the voice
+	 *
+	 * @param stats     receives buffer depth, underruns and the time to the first sample or null
+	 * @param requested System.nanoTime() when the playback was requested
+	 */
+	public void setDecoderStats(DecoderStats stats, long requested) {
+		this.requested = requested;
+		this.stats = stats;
+	}
+
+	/**
+	 * Stops the voice, the mixer drops it from the mix
+	 */
+	public void stop() {
+		stopRequested = true;
+		if (decoding.compareAndSet(false, true)) {
+			source.close();
+		}
+	}
+
+	/**
+	 * Returns number of samples buffered between the decoder and the mixer
+	 *
+	 * @return samples
+	 */
+	public int getBufferFill() {
+		return ring.available();
+	}
+
+	/**
+	 * Returns capacity of the buffer between the decoder and the mixer
+	 *
+	 * @return samples
+	 */
+	public int getBufferCapacity() {
+		return ring.getCapacity();
+	}
+
+	/**
+	 * Returns number of times the mixer found no decoded samples
+	 *
+	 * @return underruns
+	 */
+	public long getUnderruns() {
+		return underruns;
+	}
+
+	/**
+	 * Adds the next frames of the voice to the mix, it's called by the output thread of the mixer
+	 *
+	 * @param  mix         interleaved samples of the line
+	 * @param  frames      number of frames of the line to produce
+	 * @param  outRate     sample rate of the line
+	 * @param  outChannels number of channels of the line
+	 * @return number of frames added, less than frames when the decoder is late,
+	 *         -1 when the voice has finished or has been stopped
+	 */
+	int mix(int[] mix, int frames, int outRate, int outChannels) {
+		if (stopRequested) {
+			return -1;
+		}
+
+		final DecoderStats decoderStats = stats;
+		final boolean recording = decoderStats != null && decoderStats.isEnabled();
+		if (recording) {
+			decoderStats.recordBufferDepth(ring.available());
+		}
+
+		final GainRamp ramp = gainRamp;
+		int g = gain;
+		if (ramp != null) {
+			g = (g * ramp.gainAt(mixedFrames * 1000 / outRate)) >> GAIN_SHIFT;
+		}
+
+		final int produced = (outRate == sampleRate) ? copy(mix, frames, outChannels, g) : resample(mix, frames, outRate, outChannels, g);
+		if (ring.getCapacity() - ring.available() >= ring.getCapacity() / 2) {
+			refill();
+		}
+
+		if (produced < frames) {
+			if (inputLength - inputPosition < channels && ring.isFinished()) {
+				return (produced == 0) ? -1 : produced;
+			}
+
+			underruns++;
+			if (recording) {
+				decoderStats.recordUnderrun();
+			}
+		}
+
+		if (recording && produced > 0 && requested != 0) {
+			decoderStats.recordFirstSample(System.nanoTime() - requested);
+			requested = 0;
+		}
+
+		mixedFrames += produced;
+		return produced;
+	}
+
+	/**
+	 * Notifies the listener about the start of the voice
+	 */
+	void fireStarted() {
+		final PlaybackListener playbackListener = listener;
+		if (playbackListener != null) {
+			playbackListener.playbackStarted(new PlaybackEvent(null, PlaybackEvent.STARTED, 0));
+		}
+	}
+
+	/**
+	 * Notifies the listener about the end of the voice
+	 */
+	void fireFinished() {
+		final PlaybackListener playbackListener = listener;
+		if (playbackListener != null) {
+			playbackListener.playbackFinished(new PlaybackEvent(null, PlaybackEvent.STOPPED, (int)mixedFrames));
+		}
+	}
+
+	/**
+	 * Mixes frames of the same sample rate, only the channels are converted
+	 *
+	 * @return frames produced
+	 */
+	private int copy(int[] mix, int frames, int outChannels, int g) {
+		int produced = 0;
+		for (int i = 0; produced < frames && readFrame(frame); produced++) {
+			i = put(mix, i, frame, outChannels, g);
+		}
+
+		return produced;
+	}
+
+	/**
+	 * Mixes frames of another sample rate, they're interpolated linearly
+	 *
+	 * @return frames produced
+	 */
+	private int resample(int[] mix, int frames, int outRate, int outChannels, int g) {
+		while (primedFrames < 2) {
+			if (!readFrame(primedFrames == 0 ? currentFrame : nextFrame)) {
+				return 0;
+			}
+
+			primedFrames++;
+		}
+
+		final double step = sampleRate / (double)outRate;
+		int produced = 0;
+		for (int i = 0; produced < frames; produced++) {
+			while (phase >= 1) {
+				if (!readFrame(frame)) {
+					return produced;
+				}
+
+				System.arraycopy(nextFrame, 0, currentFrame, 0, 2);
+				System.arraycopy(frame, 0, nextFrame, 0, 2);
+				phase -= 1;
+			}
+
+			for (int c = 0; c < channels; c++) {
+				frame[c] = currentFrame[c] + (int)((nextFrame[c] - currentFrame[c]) * phase);
+			}
+
+			i = put(mix, i, frame, outChannels, g);
+			phase += step;
+		}
+
+		return produced;
+	}
+
+	/**
+	 * Adds one frame to the mix, mono is copied to both channels and stereo is averaged to mono
+	 *
+	 * @return index of the next frame in mix
+	 */
+	private int put(int[] mix, int index, int[] frame, int outChannels, int g) {
+		if (outChannels == channels) {
+			for (int c = 0; c < channels; c++) {
+				mix[index++] += (frame[c] * g) >> GAIN_SHIFT;
+			}
+		} else if (outChannels == 2) {
+			final int value = (frame[0] * g) >> GAIN_SHIFT;
+			mix[index++] += value;
+			mix[index++] += value;
+		} else {
+			mix[index++] += (((frame[0] + frame[1]) >> 1) * g) >> GAIN_SHIFT;
+		}
+
+		return index;
+	}
+
+	/**
+	 * Reads one frame of the source
+	 *
+	 * @param  frame destination
+	 * @return false when no complete frame is buffered
+	 */
+	private boolean readFrame(int[] frame) {
+		if (inputLength - inputPosition < channels) {
+			final int left = inputLength - inputPosition;
+			System.arraycopy(input, inputPosition, input, 0, left);
+			int count = Math.min(input.length - left, ring.available());
+			count -= (left + count) % channels;
+			inputLength = left + ring.read(input, left, count);
+			inputPosition = 0;
+			if (inputLength < channels) {
+				return false;
+			}
+		}
+
+		for (int c = 0; c < channels; c++) {
+			frame[c] = input[inputPosition++];
+		}
+
+		return true;
+	}
+
+	/**
+	 * Submits the decoder task unless it's queued or running already
+	 */
+	private void refill() {
+		if (!decoding.compareAndSet(false, true)) {
+			return;
+		}
+
+		executor.execute(new Runnable() {
+			public void run() {
+				decode();
+			}
+		});
+	}
+
+	/**
+	 * Decoder task: reads the source into the ring buffer until it's full
+	 */
+	private void decode() {
+		boolean finished = false;
+		try {
+			while (!stopRequested) {
+				if (chunkOffset == chunkLength) {
+					chunkOffset = 0;
+					chunkLength = source.read(chunk, 0, chunk.length);
+					if (chunkLength < 0) {
+						chunkLength = 0;
+						finished = true;
+						break;
+					}
+				}
+
+				chunkOffset += ring.write(chunk, chunkOffset, chunkLength - chunkOffset);
+				if (chunkOffset < chunkLength) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			finished = true;
+		}
+
+		if (finished || stopRequested) {
+			ring.close();
+			source.close();
+		} else {
+			decoding.set(false);
+			if (stopRequested && decoding.compareAndSet(false, true)) {
+				source.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package alarmclock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring buffer of 16-bit samples for a single producer and a single
+ * consumer. Positions only grow; the producer publishes written samples by
+ * moving the tail, the consumer frees space by moving the head.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class PcmRingBuffer {
+	/**
+	 * Samples, the length is a power of two
+	 */
+	private final short[] buffer;
+	private final int mask;
+
+	/**
+	 * Position of the next sample to read and to write
+	 */
+	private final AtomicLong head = new AtomicLong(0);
+	private final AtomicLong tail = new AtomicLong(0);
+
+	/**
+	 * True after the producer has written the last sample
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates the buffer
+	 *
+	 * @param capacity number of samples, must be a power of two
+	 */
+	public PcmRingBuffer(int capacity) {
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+			throw new IllegalArgumentException("Capacity must be a power of two.");
+		}
+
+		buffer = new short[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Writes as many samples as fit, it's called by the producer only
+	 *
+	 * @param  samples
+	 * @param  offset
+	 * @param  length
+	 * @return number of samples written
+	 */
+	public int write(short[] samples, int offset, int length) {
+		final long position = tail.get();
+		final int count = Math.min(length, buffer.length - (int)(position - head.get()));
+		copy(samples, offset, buffer, (int)position & mask, count, true);
+		tail.lazySet(position + count);
+		return count;
+	}
+
+	/**
+	 * Reads as many samples as available, it's called by the consumer only
+	 *
+	 * @param  samples
+	 * @param  offset
+	 * @param  length
+	 * @return number of samples read
+	 */
+	public int read(short[] samples, int offset, int length) {
+		final long position = head.get();
+		final int count = Math.min(length, (int)(tail.get() - position));
+		copy(buffer, (int)position & mask, samples, offset, count, false);
+		head.lazySet(position + count);
+		return count;
+	}
+
+	/**
+	 * Returns number of samples which can be read
+	 *
+	 * @return samples
+	 */
+	public int available() {
+		return (int)(tail.get() - head.get());
+	}
+
+	/**
+	 * Returns number of samples the buffer holds
+	 *
+	 * @return samples
+	 */
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Marks the end of data, it's called by the producer after the last write
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	/**
+	 * Returns true when the producer won't write anymore and everything has been read
+	 *
+	 * @return end of data reached
+	 */
+	public boolean isFinished() {
+		return closed && available() == 0;
+	}
+
+	/**
+	 * Copies samples, wrapping around the end of the ring
+	 *
+	 * @param toRing true when the destination is the ring, false when the source is
+	 */
+	private void copy(short[] from, int fromOffset, short[] to, int toOffset, int count, boolean toRing) {
+		final int ringOffset = toRing ? toOffset : fromOffset;
+		final int first = Math.min(count, buffer.length - ringOffset);
+		System.arraycopy(from, fromOffset, to, toOffset, first);
+		if (first < count) {
+			if (toRing) {
+				System.arraycopy(from, fromOffset + first, to, 0, count - first);
+			} else {
+				System.arraycopy(from, 0, to, toOffset + first, count - first);
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package alarmclock;
+
+import java.io.IOException;
+
+/**
+ * Opens the sound files the alarm can play, the source is chosen by the extension
+ * of the file: MP3 files are decoded (or read from PcmCache), WAV, AIFF and AU
+ * files and raw PCM are played without decoding (see SampledPcmSource)
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class PcmSourceFactory {
+	/**
+	 * Filters of the file dialog in Settings
+	 */
+	public static final String[] FILTER_EXTENSIONS = {
+		"*.mp3;*.wav;*.aif;*.aiff;*.au;*.raw;*.pcm", "*.mp3", "*.wav;*.aif;*.aiff;*.au", "*.raw;*.pcm"
+	};
+
+	/**
+	 * Extensions of the files played without decoding
+	 */
+	private static final String[] SAMPLED_EXTENSIONS = {".wav", ".aif", ".aiff", ".au"};
+	private static final String[] RAW_EXTENSIONS = {".raw", ".pcm"};
+
+	/**
+	 * Extensions of the files which are decoded
+	 */
+	private static final String[] DECODED_EXTENSIONS = {".mp3"};
+
+	/**
+	 * Returns true when the file can be played
+	 *
+	 * @param  filename
+	 * @return supported
+	 */
+	public static boolean isSupported(String filename) {
+		return needsDecoding(filename) || hasExtension(filename, SAMPLED_EXTENSIONS) || hasExtension(filename, RAW_EXTENSIONS);
+	}
+
+	/**
+	 * Returns true for MP3 files, which are decoded
+	 *
+	 * @param  filename
+	 * @return MP3 file
+	 */
+	public static boolean needsDecoding(String filename) {
+		return hasExtension(filename, DECODED_EXTENSIONS);
+	}
+
+	/**
+	 * Opens the file
+	 *
+	 * @param  filename
+	 * @param  pcmCache cache of decoded MP3 files or null
+	 * @return source
+	 *
+	 * @throws IOException when the file couldn't be opened
+	 */
+	public static IPcmSource open(String filename, PcmCache pcmCache) throws IOException {
+		return open(filename, pcmCache, null);
+	}
+
+	/**
+	 * Opens the file, decode times of MP3 frames are recorded to the stats
+	 *
+	 * @param  filename
+	 * @param  pcmCache cache of decoded MP3 files or null
+	 * @param  stats    receives decode times or null
+	 * @return source
+	 *
+	 * @throws IOException when the file couldn't be opened
+	 */
+	public static IPcmSource open(String filename, PcmCache pcmCache, DecoderStats stats) throws IOException {
+		if (hasExtension(filename, SAMPLED_EXTENSIONS)) {
+			return new SampledPcmSource(filename, false);
+		}
+
+		if (hasExtension(filename, RAW_EXTENSIONS)) {
+			return new SampledPcmSource(filename, true);
+		}
+
+		final IPcmSource source = (pcmCache == null) ? null : pcmCache.open(filename);
+		return (source == null) ? new Mp3PcmSource(filename, stats) : source;
+	}
+
+	/**
+	 * Compares the extension of the file case-insensitively
+	 *
+	 * @param  filename
+	 * @param  extensions including the dot
+	 * @return true when one of them matches
+	 */
+	private static boolean hasExtension(String filename, String[] extensions) {
+		final String name = filename.toLowerCase();
+		for (String extension : extensions) {
+			if (name.endsWith(extension)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,445 @@
+package alarmclock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Plays files one after another and starts over after the last one, until it's
+ * closed. While a track plays, the next one is opened and its first half second
+ * is decoded on the executor, so the tracks follow without a gap. The format is
+ * taken from the first track, mono and stereo tracks are converted and tracks
+ * of another sample rate are interpolated linearly, as PcmPipeline does.
+ * Files which cannot be played are skipped silently.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.2
+ */
+public class PlaylistPcmSource implements IPcmSource {
+	/**
+	 * Opened track with its decoded beginning
+	 */
+	private static class Track {
+		/**
+		 * Index of the file in the playlist
+		 */
+		private final int index;
+
+		/**
+		 * Source of the track
+		 */
+		private final IPcmSource source;
+
+		/**
+		 * Samples decoded ahead and the first one not read yet
+		 */
+		private final short[] head;
+		private int headLength = 0;
+		private int headPosition = 0;
+
+		/**
+		 * Buffer used to convert mono and stereo
+		 */
+		private short[] conversion = new short[0];
+
+		/**
+		 * Frames of the track per frame of the playlist, 1 when the sample rates are equal
+		 */
+		private final double step;
+
+		/**
+		 * State of the resampling: converted samples not interpolated yet, the frames
+		 * around the output position, how many of them have been read and the position
+		 * between them
+		 */
+		private short[] input = null;
+		private int inputPosition = 0;
+		private int inputLength = 0;
+		private final int[] currentFrame = new int[2];
+		private final int[] nextFrame = new int[2];
+		private int primedFrames = 0;
+		private double phase = 0;
+
+		/**
+		 * Creates the track
+		 *
+		 * @param index
+		 * @param source
+		 * @param headLength number of samples to decode ahead
+		 * @param step       frames of the track per frame of the playlist
+		 */
+		private Track(int index, IPcmSource source, int headLength, double step) {
+			this.index = index;
+			this.source = source;
+			this.head = new short[headLength];
+			this.step = step;
+		}
+	}
+
+	/**
+	 * Files of the playlist
+	 */
+	private final List<String> filenames;
+
+	/**
+	 * Cache of decoded PCM or null
+	 */
+	private final PcmCache pcmCache;
+
+	/**
+	 * Receives decode times of the tracks or null
+	 */
+	private final DecoderStats stats;
+
+	/**
+	 * Runs the decode-ahead of the next track
+	 */
+	private final Executor executor;
+
+	/**
+	 * Format of the playlist
+	 */
+	private final int sampleRate;
+	private final int channels;
+
+	/**
+	 * Track being played and the track being prepared, next is null when all tracks have failed
+	 */
+	private Track current;
+	private FutureTask<Track> next = null;
+
+	/**
+	 * Track opened ahead and not taken yet, it's closed by close(), and the flag
+	 * telling a decode-ahead which finishes later to close its own track
+	 */
+	private Track opened = null;
+	private boolean closed = false;
+
+	/**
+	 * Opens the first track
+	 *
+	 * @param  filenames files to play, the playlist isn't copied
+	 * @param  first     index of the first file to play
+	 * @param  pcmCache  cache of decoded PCM or null
+	 * @param  executor  runs the decode-ahead
+	 * @param  stats     receives decode times or null
+	 *
+	 * @throws IOException when the first file couldn't be opened
+	 */
+	public PlaylistPcmSource(List<String> filenames, int first, PcmCache pcmCache, Executor executor, DecoderStats stats) throws IOException {
+		if (filenames.isEmpty()) {
+			throw new IllegalArgumentException("Playlist cannot be empty.");
+		}
+
+		this.filenames = filenames;
+		this.pcmCache = pcmCache;
+		this.executor = executor;
+		this.stats = stats;
+		final IPcmSource source = PcmSourceFactory.open(filenames.get(first), pcmCache, stats);
+		sampleRate = source.getSampleRate();
+		channels = source.getChannels();
+		current = new Track(first, source, 0, 1);
+		prepareNext();
+	}
+
+	/**
+	 * Builds a playlist of the sound files in the directory of the file, sorted by name
+	 *
+	 * @param  filename
+	 * @return playlist, the file is included even when it's not supported
+	 */
+	public static List<String> fromDirectory(String filename) {
+		final File file = new File(filename);
+		final List<String> playlist = new ArrayList<String>();
+		final File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File entry : files) {
+				if (entry.isFile() && PcmSourceFactory.isSupported(entry.getName())) {
+					playlist.add(entry.getPath());
+				}
+			}
+		}
+
+		if (!playlist.contains(file.getAbsolutePath())) {
+			playlist.add(0, file.getAbsolutePath());
+		}
+
+		return playlist;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int read(short[] buffer, int offset, int length) throws IOException {
+		while (current != null) {
+			final int count = read(current, buffer, offset, length);
+			if (count >= 0) {
+				return count;
+			}
+
+			current.source.close();
+			current = takeNext();
+			if (current != null) {
+				prepareNext();
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Seeks in the track being played
+	 */
+	public void seek(long millis) throws IOException {
+		if (current != null) {
+			current.headPosition = current.headLength;
+			current.inputPosition = current.inputLength;
+			current.primedFrames = 0;
+			current.phase = 0;
+			current.source.seek(millis);
+		}
+	}
+
+	public void close() {
+		if (current != null) {
+			current.source.close();
+			current = null;
+		}
+
+		if (next != null) {
+			next.cancel(false);
+			next = null;
+		}
+
+		synchronized (this) {
+			closed = true;
+			if (opened != null) {
+				opened.source.close();
+				opened = null;
+			}
+		}
+	}
+
+	/**
+	 * Reads samples of the track converted to the format of the playlist, the decoded head first
+	 *
+	 * @return number of samples or -1 at the end of the track
+	 */
+	private int read(Track track, short[] buffer, int offset, int length) throws IOException {
+		if (track.headPosition < track.headLength) {
+			final int count = Math.min(length, track.headLength - track.headPosition);
+			System.arraycopy(track.head, track.headPosition, buffer, offset, count);
+			track.headPosition += count;
+			return count;
+		}
+
+		return readSource(track, buffer, offset, length);
+	}
+
+	/**
+	 * Reads samples of the source of the track converted to the format of the playlist
+	 *
+	 * @return number of samples or -1 at the end of the track
+	 */
+	private int readSource(Track track, short[] buffer, int offset, int length) throws IOException {
+		if (track.step == 1) {
+			return readChannels(track, buffer, offset, length);
+		}
+
+		if (track.input == null) {
+			track.input = new short[4096 - 4096 % channels];
+		}
+
+		final int frames = length / channels;
+		int j = offset;
+		for (int produced = 0; produced < frames; produced++) {
+			while (track.primedFrames < 2 || track.phase >= 1) {
+				if (!readFrame(track)) {
+					return (j == offset) ? -1 : j - offset;
+				}
+			}
+
+			for (int c = 0; c < channels; c++) {
+				buffer[j++] = (short)(track.currentFrame[c] + (int)((track.nextFrame[c] - track.currentFrame[c]) * track.phase));
+			}
+
+			track.phase += track.step;
+		}
+
+		return j - offset;
+	}
+
+	/**
+	 * Moves the resampling of the track to its next frame
+	 *
+	 * @return false at the end of the track
+	 */
+	private boolean readFrame(Track track) throws IOException {
+		while (track.inputPosition == track.inputLength) {
+			final int count = readChannels(track, track.input, 0, track.input.length);
+			if (count < 0) {
+				return false;
+			}
+
+			track.inputPosition = 0;
+			track.inputLength = count;
+		}
+
+		System.arraycopy(track.nextFrame, 0, track.currentFrame, 0, channels);
+		for (int c = 0; c < channels; c++) {
+			track.nextFrame[c] = track.input[track.inputPosition++];
+		}
+
+		if (track.primedFrames < 2) {
+			track.primedFrames++;
+		} else {
+			track.phase -= 1;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads samples of the source of the track converted to the channels of the playlist
+	 *
+	 * @return number of samples or -1 at the end of the track
+	 */
+	private int readChannels(Track track, short[] buffer, int offset, int length) throws IOException {
+		final int trackChannels = track.source.getChannels();
+		if (trackChannels == channels) {
+			return track.source.read(buffer, offset, length);
+		}
+
+		final int frames = length / channels;
+		if (track.conversion.length < frames * trackChannels) {
+			track.conversion = new short[frames * trackChannels];
+		}
+
+		final short[] conversion = track.conversion;
+		final int count = track.source.read(conversion, 0, frames * trackChannels);
+		if (count < 0) {
+			return -1;
+		}
+
+		int j = offset;
+		for (int i = 0; i + trackChannels <= count; i += trackChannels) {
+			if (trackChannels == 1) {
+				buffer[j++] = conversion[i];
+				buffer[j++] = conversion[i];
+			} else {
+				buffer[j++] = (short)((conversion[i] + conversion[i + 1]) >> 1);
+			}
+		}
+
+		return j - offset;
+	}
+
+	/**
+	 * Opens the track after the current one and decodes its beginning on the executor,
+	 * the track is closed right away when the playlist has been closed meanwhile
+	 */
+	private void prepareNext() {
+		final int index = current.index;
+		next = new FutureTask<Track>(new Callable<Track>() {
+			public Track call() throws IOException {
+				final Track track = openTrack(index + 1);
+				synchronized (PlaylistPcmSource.this) {
+					if (!closed) {
+						opened = track;
+						return track;
+					}
+				}
+
+				track.source.close();
+				return null;
+			}
+		});
+		executor.execute(next);
+	}
+
+	/**
+	 * Returns the track prepared by prepareNext(). A decode-ahead still waiting in
+	 * the queue of the executor runs on the calling thread, read() is called by
+	 * a task of the same executor, so blocking on a queued task could take the
+	 * last free thread of the executor and never finish.
+	 *
+	 * @return track or null when no track can be played
+	 */
+	private Track takeNext() throws IOException {
+		final FutureTask<Track> task = next;
+		next = null;
+		if (task == null) {
+			return null;
+		}
+
+		task.run();
+		try {
+			final Track track = task.get();
+			synchronized (this) {
+				opened = null;
+			}
+
+			return track;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while opening the next track");
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Opens the first playable track starting at the index, wrapping around the end of the playlist
+	 *
+	 * @param  index
+	 * @return track with its beginning decoded
+	 *
+	 * @throws IOException when no file of the playlist can be played
+	 */
+	private Track openTrack(int index) throws IOException {
+		final int size = filenames.size();
+		for (int i = 0; i < size; i++) {
+			final int trackIndex = (index + i) % size;
+			final String filename = filenames.get(trackIndex);
+			IPcmSource source = null;
+			try {
+				source = PcmSourceFactory.open(filename, pcmCache, stats);
+				final Track track = new Track(trackIndex, source, sampleRate / 2 * channels,
+					source.getSampleRate() / (double)sampleRate);
+				while (track.headLength < track.head.length) {
+					final int count = readSource(track, track.head, track.headLength, track.head.length - track.headLength);
+					if (count < 0) {
+						break;
+					}
+
+					track.headLength += count;
+				}
+
+				if (track.headLength > 0) {
+					return track;
+				}
+
+				source.close();
+			} catch (IOException e) {
+				if (source != null) {
+					source.close();
+				}
+			}
+		}
+
+		throw new IOException("No file of the playlist can be played");
+	}
+}
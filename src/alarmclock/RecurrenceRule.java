@@ -0,0 +1,456 @@
+package alarmclock;
+
+import java.util.TimeZone;
+
+/**
+ * Cron-style recurrence of an alarm compiled to bit sets, one per field.
+ * The rule consists of six fields separated by white space:
+ *
+ * <pre>
+ * second minute hour day-of-month month day-of-week
+ * </pre>
+ *
+ * Every field accepts "*", a number, a range "a-b", a step "*&#47;n" or "a-b/n"
+ * and comma separated lists of those. Day-of-month accepts "L" for the last
+ * day of month, day-of-week accepts 0-7 (0 and 7 being Sunday), names like
+ * MON-FRI and "nL" for the last given weekday of month. For example:
+ *
+ * <pre>
+ * 0 30 6 * * MON-FRI        weekdays at 06:30
+ * 0 *&#47;15 8-17 * * *         every 15 minutes between 8:00 and 18:00
+ * 0 0 9 * * 5L              9:00 on the last Friday of month
+ * </pre>
+ *
+ * When both day-of-month and day-of-week are restricted, a day matching either
+ * of them matches (as in cron). The next occurrence is found by scanning the
+ * bit sets, there is no Calendar involved.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class RecurrenceRule {
+	/**
+	 * Names of the days of week, index is the value of day-of-week
+	 */
+	private static final String[] WEEKDAYS = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+	/**
+	 * Number of days the search for the next occurrence may look ahead
+	 * (enough for the 29th of February on a given weekday)
+	 */
+	private static final int MAX_DAYS = 366 * 30;
+
+	/**
+	 * The rule as it was compiled
+	 */
+	private final String expression;
+
+	/**
+	 * Allowed values, bit n is set when value n is allowed
+	 */
+	private long seconds;
+	private long minutes;
+	private long hours;
+	private long daysOfMonth;
+	private long months;
+	private long daysOfWeek;
+	private long lastDaysOfWeek;
+	private boolean lastDayOfMonth;
+
+	/**
+	 * True when the day fields were given as "*"
+	 */
+	private boolean anyDayOfMonth;
+	private boolean anyDayOfWeek;
+
+	/**
+	 * False for the rule of an alarm which is disabled after it goes off (see once())
+	 */
+	private boolean repeating = true;
+
+	/**
+	 * Compiles the rule
+	 *
+	 * @param  expression six fields as described in the class comment
+	 *
+	 * @throws IllegalArgumentException when the expression is malformed
+	 */
+	public RecurrenceRule(String expression) {
+		if (expression == null) {
+			throw new IllegalArgumentException("Expression cannot be null.");
+		}
+
+		final String[] fields = expression.trim().split("\\s+");
+		if (fields.length != 6) {
+			throw new IllegalArgumentException("Expected 6 fields in '" + expression + "'");
+		}
+
+		this.expression = expression.trim();
+		seconds = parseField(fields[0], 0, 59, null);
+		minutes = parseField(fields[1], 0, 59, null);
+		hours   = parseField(fields[2], 0, 23, null);
+		months  = parseField(fields[4], 1, 12, null);
+
+		anyDayOfMonth = "*".equals(fields[3]) || "?".equals(fields[3]);
+		anyDayOfWeek  = "*".equals(fields[5]) || "?".equals(fields[5]);
+
+		final StringBuilder dayOfMonth = new StringBuilder();
+		for (String part : fields[3].split(",")) {
+			if ("L".equalsIgnoreCase(part)) {
+				lastDayOfMonth = true;
+			} else {
+				dayOfMonth.append(dayOfMonth.length() == 0 ? "" : ",").append(part);
+			}
+		}
+
+		if (dayOfMonth.length() > 0) {
+			daysOfMonth = parseField(dayOfMonth.toString(), 1, 31, null);
+		}
+
+		final StringBuilder dayOfWeek = new StringBuilder();
+		for (String part : fields[5].split(",")) {
+			if (part.length() > 1 && Character.toUpperCase(part.charAt(part.length() - 1)) == 'L') {
+				lastDaysOfWeek |= parseField(part.substring(0, part.length() - 1), 0, 7, WEEKDAYS);
+			} else {
+				dayOfWeek.append(dayOfWeek.length() == 0 ? "" : ",").append(part);
+			}
+		}
+
+		if (dayOfWeek.length() > 0) {
+			daysOfWeek = parseField(dayOfWeek.toString(), 0, 7, WEEKDAYS);
+		}
+
+		daysOfWeek     = foldSunday(daysOfWeek);
+		lastDaysOfWeek = foldSunday(lastDaysOfWeek);
+		if (seconds == 0 || minutes == 0 || hours == 0 || months == 0 ||
+			(daysOfMonth == 0 && !lastDayOfMonth && daysOfWeek == 0 && lastDaysOfWeek == 0))
+		{
+			throw new IllegalArgumentException("Rule '" + expression + "' never matches");
+		}
+	}
+
+	/**
+	 * Builds the rule of an alarm which goes off every day at the specified time
+	 *
+	 * @param  hour
+	 * @param  minute
+	 * @param  second
+	 * @return rule
+	 */
+	public static RecurrenceRule daily(int hour, int minute, int second) {
+		return new RecurrenceRule(second + " " + minute + " " + hour + " * * *");
+	}
+
+	/**
+	 * Builds the rule of an alarm which goes off at the next occurrence of the
+	 * specified time and is disabled afterwards. The occurrences are the same as
+	 * of daily(), enabling the alarm again arms the following one.
+	 *
+	 * @param  hour
+	 * @param  minute
+	 * @param  second
+	 * @return rule
+	 */
+	public static RecurrenceRule once(int hour, int minute, int second) {
+		final RecurrenceRule rule = daily(hour, minute, second);
+		rule.repeating = false;
+		return rule;
+	}
+
+	/**
+	 * Returns the rule as it was compiled
+	 *
+	 * @return expression
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Returns true when the alarm stays enabled after an occurrence has gone off
+	 *
+	 * @return false for the rule built by once()
+	 */
+	public boolean isRepeating() {
+		return repeating;
+	}
+
+	/**
+	 * Returns the first occurrence strictly after the specified instant
+	 *
+	 * @param  after    milliseconds since the epoch
+	 * @param  timezone zone in which the fields of the rule are evaluated
+	 * @return milliseconds since the epoch or -1 when there is no occurrence
+	 */
+	public long nextOccurrence(long after, TimeZone timezone) {
+		long local = floorDiv(after + timezone.getOffset(after), 1000) + 1;
+		while (true) {
+			final long found = nextLocalSecond(local);
+			if (found < 0) {
+				return -1;
+			}
+
+			/**
+			 * The occurrence is before the instant only when its local time repeats
+			 * (DST ends) and its first instant has passed, the repeated one is skipped
+			 */
+			final long occurrence = toInstant(found * 1000, timezone);
+			if (occurrence > after) {
+				return occurrence;
+			}
+
+			local = found + 1;
+		}
+	}
+
+	/**
+	 * Converts local time to an instant. A local time which occurs twice when DST
+	 * ends resolves to its first instant, a local time skipped when DST starts is
+	 * moved forward by the length of the skipped interval.
+	 *
+	 * @param  localMillis milliseconds since the local epoch
+	 * @param  timezone
+	 * @return milliseconds since the epoch
+	 */
+	private static long toInstant(long localMillis, TimeZone timezone) {
+		final long before = localMillis - timezone.getOffset(localMillis - 86400000L);
+		final long after = localMillis - timezone.getOffset(localMillis + 86400000L);
+		final boolean beforeValid = before + timezone.getOffset(before) == localMillis;
+		final boolean afterValid = after + timezone.getOffset(after) == localMillis;
+		if (beforeValid && afterValid) {
+			return Math.min(before, after);
+		}
+
+		if (beforeValid || afterValid) {
+			return beforeValid ? before : after;
+		}
+
+		final long guess = localMillis - timezone.getOffset(localMillis);
+		return localMillis - timezone.getOffset(guess);
+	}
+
+	/**
+	 * Finds the first matching local second at or after the specified one
+	 *
+	 * @param  local seconds since the local epoch
+	 * @return seconds since the local epoch or -1
+	 */
+	private long nextLocalSecond(long local) {
+		long day = floorDiv(local, 86400);
+		int secondOfDay = (int)(local - day * 86400);
+		for (int i = 0; i < MAX_DAYS; i++, day++, secondOfDay = 0) {
+			if (!dayMatches(day)) {
+				continue;
+			}
+
+			final int time = nextSecondOfDay(secondOfDay);
+			if (time >= 0) {
+				return day * 86400 + time;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Finds the first matching time of day at or after the specified one
+	 *
+	 * @param  secondOfDay
+	 * @return second of day or -1 when nothing matches till midnight
+	 */
+	private int nextSecondOfDay(int secondOfDay) {
+		int hour   = secondOfDay / 3600;
+		int minute = secondOfDay / 60 % 60;
+		int second = secondOfDay % 60;
+
+		if (nextBit(hours, hour) == hour) {
+			if (nextBit(minutes, minute) == minute) {
+				second = nextBit(seconds, second);
+				if (second >= 0) {
+					return hour * 3600 + minute * 60 + second;
+				}
+
+				minute++;
+			}
+
+			minute = nextBit(minutes, minute);
+			if (minute >= 0) {
+				return hour * 3600 + minute * 60 + nextBit(seconds, 0);
+			}
+
+			hour++;
+		}
+
+		hour = nextBit(hours, hour);
+		if (hour < 0) {
+			return -1;
+		}
+
+		return hour * 3600 + nextBit(minutes, 0) * 60 + nextBit(seconds, 0);
+	}
+
+	/**
+	 * Decides whether the day matches month, day-of-month and day-of-week fields
+	 *
+	 * @param  day days since the local epoch
+	 * @return true when the day matches
+	 */
+	private boolean dayMatches(long day) {
+		/**
+		 * Civil date from the number of days, see http://howardhinnant.github.io/date_algorithms.html
+		 */
+		final long z = day + 719468;
+		final long era = floorDiv(z, 146097);
+		final int dayOfEra = (int)(z - era * 146097);
+		final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		final int mp = (5 * dayOfYear + 2) / 153;
+		final int dayOfMonth = dayOfYear - (153 * mp + 2) / 5 + 1;
+		final int month = mp < 10 ? mp + 3 : mp - 9;
+		if ((months & (1L << month)) == 0) {
+			return false;
+		}
+
+		final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		final int monthLength = monthLength(year, month);
+		final int dayOfWeek = (int)(day + 4 - floorDiv(day + 4, 7) * 7);
+
+		final boolean domMatches = (daysOfMonth & (1L << dayOfMonth)) != 0 ||
+			(lastDayOfMonth && dayOfMonth == monthLength);
+		final boolean dowMatches = (daysOfWeek & (1L << dayOfWeek)) != 0 ||
+			((lastDaysOfWeek & (1L << dayOfWeek)) != 0 && dayOfMonth + 7 > monthLength);
+
+		if (anyDayOfMonth || anyDayOfWeek) {
+			return (anyDayOfMonth || domMatches) && (anyDayOfWeek || dowMatches);
+		}
+
+		return domMatches || dowMatches;
+	}
+
+	/**
+	 * Returns number of days of the month
+	 *
+	 * @param  year
+	 * @param  month 1-12
+	 * @return number of days
+	 */
+	private static int monthLength(long year, int month) {
+		if (month == 2) {
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		}
+
+		return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+	}
+
+	/**
+	 * Returns the lowest set bit at or above the specified position
+	 *
+	 * @param  bits
+	 * @param  from position
+	 * @return position of the bit or -1
+	 */
+	private static int nextBit(long bits, int from) {
+		if (from >= 64) {
+			return -1;
+		}
+
+		final long masked = bits & (-1L << from);
+		return (masked == 0) ? -1 : Long.numberOfTrailingZeros(masked);
+	}
+
+	/**
+	 * Moves Sunday given as 7 to 0
+	 *
+	 * @param  bits days of week
+	 * @return days of week with bits 0-6 only
+	 */
+	private static long foldSunday(long bits) {
+		return (bits & 0x7f) | ((bits >>> 7) & 1);
+	}
+
+	/**
+	 * Division rounding towards negative infinity
+	 */
+	private static long floorDiv(long x, long y) {
+		final long q = x / y;
+		return (x % y != 0 && ((x < 0) != (y < 0))) ? q - 1 : q;
+	}
+
+	/**
+	 * Compiles one field to a bit set
+	 *
+	 * @param  field text of the field
+	 * @param  min   lowest allowed value
+	 * @param  max   highest allowed value
+	 * @param  names names of values starting with min or null
+	 * @return bit set of allowed values
+	 *
+	 * @throws IllegalArgumentException when the field is malformed
+	 */
+	private static long parseField(String field, int min, int max, String[] names) {
+		long bits = 0;
+		for (String part : field.split(",")) {
+			int step = 1;
+			final int slash = part.indexOf('/');
+			if (slash >= 0) {
+				step = parseValue(part.substring(slash + 1), 1, max, null);
+				part = part.substring(0, slash);
+			}
+
+			int from = min;
+			int to = max;
+			if (!"*".equals(part) && !"?".equals(part)) {
+				final int dash = part.indexOf('-', 1);
+				if (dash >= 0) {
+					from = parseValue(part.substring(0, dash), min, max, names);
+					to = parseValue(part.substring(dash + 1), min, max, names);
+				} else {
+					from = parseValue(part, min, max, names);
+					to = (slash >= 0) ? max : from;
+				}
+			}
+
+			if (from > to) {
+				throw new IllegalArgumentException("Invalid range '" + part + "'");
+			}
+
+			for (int value = from; value <= to; value += step) {
+				bits |= 1L << value;
+			}
+		}
+
+		return bits;
+	}
+
+	/**
+	 * Parses a single number or name of a field
+	 *
+	 * @throws IllegalArgumentException when the value is malformed or out of range
+	 */
+	private static int parseValue(String text, int min, int max, String[] names) {
+		if (names != null) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equalsIgnoreCase(text)) {
+					return min + i;
+				}
+			}
+		}
+
+		final int value;
+		try {
+			value = Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value '" + text + "'");
+		}
+
+		if (value < min || value > max) {
+			throw new IllegalArgumentException("Value " + value + " is out of range " + min + "-" + max);
+		}
+
+		return value;
+	}
+
+	public String toString() {
+		return expression;
+	}
+}
@@ -0,0 +1,141 @@
+package alarmclock;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Uncompressed PCM read through javax.sound.sampled, i.e. WAV, AIFF and AU files
+ * or raw files of 16-bit signed little-endian 44.1 kHz stereo samples. Nothing
+ * is decoded, samples in another PCM encoding are only converted to 16-bit
+ * signed little-endian by AudioSystem.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class SampledPcmSource implements IPcmSource {
+	/**
+	 * Format of raw PCM files
+	 */
+	public static final AudioFormat RAW_FORMAT = new AudioFormat(44100, 16, 2, true, false);
+
+	/**
+	 * The file and whether it has no header
+	 */
+	private final String filename;
+	private final boolean raw;
+
+	/**
+	 * Stream of samples in 16-bit signed little-endian
+	 */
+	private AudioInputStream stream;
+
+	/**
+	 * Bytes read from the stream
+	 */
+	private byte[] bytes = new byte[0];
+
+	/**
+	 * Opens the file
+	 *
+	 * @param  filename
+	 * @param  raw      true for a file of samples in RAW_FORMAT without any header
+	 *
+	 * @throws IOException when the file couldn't be opened or isn't PCM
+	 */
+	public SampledPcmSource(String filename, boolean raw) throws IOException {
+		this.filename = filename;
+		this.raw = raw;
+		stream = open();
+	}
+
+	public int getSampleRate() {
+		return (int)stream.getFormat().getSampleRate();
+	}
+
+	public int getChannels() {
+		return stream.getFormat().getChannels();
+	}
+
+	public int read(short[] buffer, int offset, int length) throws IOException {
+		if (bytes.length < length * 2) {
+			bytes = new byte[length * 2];
+		}
+
+		final int count = stream.read(bytes, 0, length * 2);
+		if (count < 0) {
+			return (length > 0) ? -1 : 0;
+		}
+
+		final int samples = count / 2;
+		for (int i = 0, j = 0; i < samples; i++, j += 2) {
+			buffer[offset + i] = (short)((bytes[j] & 0xFF) | (bytes[j + 1] << 8));
+		}
+
+		return samples;
+	}
+
+	public void seek(long millis) throws IOException {
+		close();
+		stream = open();
+		final AudioFormat format = stream.getFormat();
+		long skip = Math.max(0, millis) * (long)format.getSampleRate() / 1000 * format.getFrameSize();
+		while (skip > 0) {
+			final long skipped = stream.skip(skip);
+			if (skipped <= 0) {
+				break;
+			}
+
+			skip -= skipped;
+		}
+	}
+
+	public void close() {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Opens the stream of the file in 16-bit signed little-endian
+	 *
+	 * @return stream
+	 *
+	 * @throws IOException when the file couldn't be opened or isn't PCM
+	 */
+	private AudioInputStream open() throws IOException {
+		final File file = new File(filename);
+		if (raw) {
+			final BufferedInputStream input = new BufferedInputStream(new FileInputStream(file));
+			return new AudioInputStream(input, RAW_FORMAT, file.length() / RAW_FORMAT.getFrameSize());
+		}
+
+		final AudioInputStream input;
+		try {
+			input = AudioSystem.getAudioInputStream(file);
+		} catch (UnsupportedAudioFileException e) {
+			throw new IOException("Unsupported audio file " + filename);
+		}
+
+		final AudioFormat format = input.getFormat();
+		final AudioFormat target = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+		if (format.matches(target)) {
+			return input;
+		}
+
+		if (format.getChannels() > 2 || !AudioSystem.isConversionSupported(target, format)) {
+			input.close();
+			throw new IOException("Unsupported format " + format + " of " + filename);
+		}
+
+		return AudioSystem.getAudioInputStream(target, input);
+	}
+}
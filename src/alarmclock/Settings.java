@@ -1,8 +1,14 @@
 package alarmclock;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javazoom.jl.player.advanced.PlaybackEvent;
 import javazoom.jl.player.advanced.PlaybackListener;
@@ -10,6 +16,8 @@ import javazoom.jl.player.advanced.PlaybackListener;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.layout.FormAttachment;
@@ -44,9 +52,11 @@ public class Settings {
 	private Shell shell;
 	private Button buttonPlay;
 	private MemoryCombo comboFilename;
+	private Label labelMp3Info;
 	private Spinner spinnerHour;
 	private Spinner spinnerMinute;
 	private Spinner spinnerSecond;
+	private Spinner spinnerStartOffset;
 	private Button buttonConfirm;
 	private Button checkboxExitRequiresConfirmation;
 	private Combo comboTimezone;
@@ -58,6 +68,16 @@ public class Settings {
 	private boolean confirmExit = true;
 	private String alarmFilename = "";
 	private int alarmTimeZone = 0;
+	private String alarmScheduler = "heap";
+	private String alarmRecurrence = "";
+	private String alarmCatchUp = "grace";
+	private int alarmGraceSeconds = 3600;
+	private int alarmPrerollSeconds = 10;
+	private int pcmCacheMegabytes = 256;
+	private int alarmStartOffset = 0;
+	private String alarmPlaylist = "none";
+	private int alarmFadeInSeconds = 0;
+	private boolean decoderStats = false;
 	
 	/**
 	 * Holds the instance of AlarmClock
@@ -69,6 +89,32 @@ public class Settings {
 	 */
 	private Mp3Player player;
 	
+	/**
+	 * Milliseconds after the last change of the filename when the file is probed
+	 */
+	private static final int PROBE_DELAY = 300;
+	
+	/**
+	 * Keepalive of the idle probe thread in seconds
+	 */
+	private static final long PROBE_KEEPALIVE = 30;
+	
+	/**
+	 * Probes the files one by one on a daemon thread
+	 */
+	private final ExecutorService probeExecutor;
+	
+	/**
+	 * Starts probing the file in the combo, every change of the filename postpones it
+	 */
+	private Runnable mp3InfoProbe = null;
+	
+	/**
+	 * Incremented by every probe, the result of an older probe is dropped and
+	 * a probe still queued when a newer one starts doesn't read the file
+	 */
+	private volatile int probeGeneration = 0;
+	
 	/**
 	 * Creates the shell for application settings and loads settings from AlarmClock.CONFIGURATION_FILE
 	 * 
@@ -78,6 +124,17 @@ public class Settings {
 	Settings(AlarmClock alarmClock, Mp3Player player) {
 		this.alarmClock = alarmClock;
 		this.player = player;
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, PROBE_KEEPALIVE, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "Mp3Probe");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		pool.allowCoreThreadTimeOut(true);
+		probeExecutor = pool;
 		try {
 			load(alarmClock.CONFIGURATION_FILE);
 		} catch (IOException e) {
@@ -139,6 +196,99 @@ public class Settings {
 		return alarmTimeZone;
 	}
 	
+	/**
+	 * Returns the recurrence rule of the alarm (see RecurrenceRule), when it's empty
+	 * the alarm goes off once at getAlarmHour():getAlarmMinute():getAlarmSecond()
+	 * and it's disabled afterwards
+	 * 
+	 * @return rule or empty string
+	 */
+	public String getAlarmRecurrence() {
+		return alarmRecurrence;
+	}
+	
+	/**
+	 * Returns what happens with an alarm missed while the application was stalled or not running
+	 * 
+	 * @return policy
+	 */
+	public CatchUpPolicy getAlarmCatchUp() {
+		return CatchUpPolicy.fromName(alarmCatchUp, CatchUpPolicy.GRACE);
+	}
+	
+	/**
+	 * Returns how late a missed alarm may go off with CatchUpPolicy.GRACE
+	 * 
+	 * @return seconds
+	 */
+	public int getAlarmGraceSeconds() {
+		return alarmGraceSeconds;
+	}
+	
+	/**
+	 * Returns how long before the alarm the MP3 is opened and the audio line prepared
+	 * 
+	 * @return seconds
+	 */
+	public int getAlarmPrerollSeconds() {
+		return alarmPrerollSeconds;
+	}
+	
+	/**
+	 * Returns where the alarm sound starts playing
+	 * 
+	 * @return seconds from the start of the file
+	 */
+	public int getAlarmStartOffset() {
+		return alarmStartOffset;
+	}
+	
+	/**
+	 * Returns what plays after the alarm MP3: "none", "directory" for the MP3s in
+	 * its directory or "mru" for the recently used MP3s
+	 * 
+	 * @return playlist source
+	 */
+	public String getAlarmPlaylist() {
+		return alarmPlaylist;
+	}
+	
+	/**
+	 * Returns how long the alarm sound rises from silence to full volume
+	 * 
+	 * @return seconds, 0 starts at full volume
+	 */
+	public int getAlarmFadeInSeconds() {
+		return alarmFadeInSeconds;
+	}
+	
+	/**
+	 * Returns the size limit of the cache of decoded sounds, it's applied when the application starts
+	 * 
+	 * @return megabytes, 0 disables the cache
+	 */
+	public int getPcmCacheMegabytes() {
+		return pcmCacheMegabytes;
+	}
+	
+	/**
+	 * Returns the alarm scheduler engine, it's applied when the application starts
+	 * 
+	 * @return "heap" for AlarmScheduler or "wheel" for TimingWheelScheduler
+	 */
+	public String getAlarmScheduler() {
+		return alarmScheduler;
+	}
+	
+	/**
+	 * Returns true when the player records decoder counters (see DecoderStats), it's applied when the application starts
+	 * 
+	 * @return decoderStats
+	 */
+	public boolean getDecoderStats() {
+		return decoderStats;
+	}
+	
 	/**
 	 * Saves application settings from the configuration variables to specified file in XML format
 	 * 
@@ -172,6 +322,46 @@ public class Settings {
 			xmlWriter.writeText(alarmFilename);
 			xmlWriter.endEntity();
 			
+			xmlWriter.writeEntity("alarmRecurrence");
+			xmlWriter.writeText(alarmRecurrence);
+			xmlWriter.endEntity();
+			
+			xmlWriter.writeEntity("alarmCatchUp");
+			xmlWriter.writeText(alarmCatchUp);
+			xmlWriter.endEntity();
+			
+			xmlWriter.writeEntity("alarmGraceSeconds");
+			xmlWriter.writeText(String.valueOf(alarmGraceSeconds));
+			xmlWriter.endEntity();
+			
+			xmlWriter.writeEntity("alarmPrerollSeconds");
+			xmlWriter.writeText(String.valueOf(alarmPrerollSeconds));
+			xmlWriter.endEntity();
+			
+			xmlWriter.writeEntity("alarmStartOffset");
+			xmlWriter.writeText(String.valueOf(alarmStartOffset));
+			xmlWriter.endEntity();
+			
+			xmlWriter.writeEntity("alarmFadeInSeconds");
+			xmlWriter.writeText(String.valueOf(alarmFadeInSeconds));
+			xmlWriter.endEntity();
+			
+			xmlWriter.writeEntity("alarmPlaylist");
+			xmlWriter.writeText(alarmPlaylist);
+			xmlWriter.endEntity();
+			
+			xmlWriter.writeEntity("pcmCacheMegabytes");
+			xmlWriter.writeText(String.valueOf(pcmCacheMegabytes));
+			xmlWriter.endEntity();
+			
+			xmlWriter.writeEntity("alarmScheduler");
+			xmlWriter.writeText(alarmScheduler);
+			xmlWriter.endEntity();
+			
+			xmlWriter.writeEntity("decoderStats");
+			xmlWriter.writeText(decoderStats ? "true" : "false");
+			xmlWriter.endEntity();
+			
 			xmlWriter.writeEntity("confirmExit");
 			xmlWriter.writeText(confirmExit ? "true" : "false");
 			xmlWriter.endEntity();
@@ -207,6 +397,23 @@ public class Settings {
 		return node.getTextContent();
 	}
 	
+	/**
+	 * Reads an integer that is found using getElementsByTagname, for entries added
+	 * to the configuration later, which are missing in older files
+	 *  
+	 * @param domDocument
+	 * @param elementTagName
+	 * @param defaultValue returned when the node is missing or malformed
+	 * @return value of the node or defaultValue
+	 */
+	private int safeDomReadInt(Document domDocument, String elementTagName, int defaultValue) {
+		try {
+			return Integer.parseInt(safeDomRead(domDocument, elementTagName).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+	
 	/**
 	 * Loads application settings from a specified file in XML and formats it to configuration variables
 	 * 
@@ -226,6 +433,29 @@ public class Settings {
 		alarmTimeZone = Integer.parseInt(safeDomRead(domDocument, "alarmTimeZone"));
 		confirmExit   = Boolean.valueOf(safeDomRead(domDocument, "confirmExit"));
 		alarmFilename = safeDomRead(domDocument, "alarmFilename");
+		
+		alarmRecurrence = safeDomRead(domDocument, "alarmRecurrence").trim();
+		
+		alarmGraceSeconds = safeDomReadInt(domDocument, "alarmGraceSeconds", alarmGraceSeconds);
+		alarmPrerollSeconds = safeDomReadInt(domDocument, "alarmPrerollSeconds", alarmPrerollSeconds);
+		alarmFadeInSeconds = safeDomReadInt(domDocument, "alarmFadeInSeconds", alarmFadeInSeconds);
+		alarmStartOffset = safeDomReadInt(domDocument, "alarmStartOffset", alarmStartOffset);
+		pcmCacheMegabytes = safeDomReadInt(domDocument, "pcmCacheMegabytes", pcmCacheMegabytes);
+		decoderStats = Boolean.valueOf(safeDomRead(domDocument, "decoderStats"));
+		final String catchUp = safeDomRead(domDocument, "alarmCatchUp");
+		if (catchUp.length() > 0) {
+			alarmCatchUp = catchUp;
+		}
+		
+		final String playlist = safeDomRead(domDocument, "alarmPlaylist");
+		if (playlist.length() > 0) {
+			alarmPlaylist = playlist;
+		}
+		
+		final String scheduler = safeDomRead(domDocument, "alarmScheduler");
+		if (scheduler.length() > 0) {
+			alarmScheduler = scheduler;
+		}
 	}
 	
 	/**
@@ -241,8 +471,8 @@ public class Settings {
 		}
 		
 		shell = new Shell(SWT.CENTER | SWT.CLOSE | SWT.RESIZE | SWT.BORDER);
-		shell.setMinimumSize(350, 240);
-		shell.setSize(600, 240);
+		shell.setMinimumSize(350, 260);
+		shell.setSize(600, 260);
 		alarmClock.centerShell(shell);
 		
 		FormData formData = new FormData();
@@ -268,7 +498,7 @@ public class Settings {
 		
 		comboFilename = new MemoryCombo();
 		comboFilename.setMaxSize(10);
-		comboFilename.setMruFilename("mru.xml");
+		comboFilename.setMruFilename(alarmClock.MRU_FILE);
 		comboFilename.create(shell, SWT.LEFT | SWT.BORDER | SWT.SHADOW_ETCHED_IN);
 		
 		formData = new FormData();
@@ -282,6 +512,25 @@ public class Settings {
 			comboFilename.setText(alarmFilename);
 		}
 		
+		labelMp3Info = new Label(shell, SWT.LEFT);
+		formData = new FormData();
+		formData.left = new FormAttachment(labelMp3Filename);
+		formData.top = new FormAttachment(labelMp3Filename);
+		formData.right = new FormAttachment(100, -5);
+		formData.height = 20;
+		labelMp3Info.setLayoutData(formData);
+		mp3InfoProbe = new Runnable() {
+			public void run() {
+				updateMp3Info();
+			}
+		};
+		updateMp3Info();
+		comboFilename.addModifyListener(new ModifyListener() {
+			public void modifyText(ModifyEvent event) {
+				shell.getDisplay().timerExec(PROBE_DELAY, mp3InfoProbe);
+			}
+		});
+		
 		final Button buttonChoose = new Button(shell, SWT.PUSH);
 		formData = new FormData();
 		formData.left = new FormAttachment(100, - alarmClock.BUTTON_WIDTH - 10);
@@ -292,14 +541,12 @@ public class Settings {
 		buttonChoose.setText("Choo&se");
 		
 		/**
-		 * Opens the file selection dialog with filter *.mp3 after the Choose button is clicked
+		 * Opens the file selection dialog with filters of the supported sound files after the Choose button is clicked
 		 */
 		buttonChoose.addSelectionListener(new SelectionAdapter() {
 			public void widgetSelected(SelectionEvent event) {
-				String[] allowedExtensions = new String[1];
-				allowedExtensions[0] = "*.mp3";
 				FileDialog fd = new FileDialog(shell);
-				fd.setFilterExtensions(allowedExtensions);
+				fd.setFilterExtensions(PcmSourceFactory.FILTER_EXTENSIONS);
 				String filename = fd.open();
 				if (filename != null) {
 					comboFilename.setText(filename);
@@ -311,7 +558,7 @@ public class Settings {
 		final Label labelAlarmtime = new Label(shell, SWT.LEFT);
 		formData = new FormData();
 		formData.left = new FormAttachment(1);
-		formData.top = new FormAttachment(labelMp3Filename, 5);
+		formData.top = new FormAttachment(labelMp3Info, 5);
 		formData.width = 120;
 		formData.height = 20;
 		labelAlarmtime.setLayoutData(formData);
@@ -350,10 +597,31 @@ public class Settings {
 		spinnerSecond.setSelection(alarmSecond);
 		spinnerSecond.setLayoutData(formData);
 		
+		final Label labelStartOffset = new Label(shell, SWT.LEFT);
+		formData = new FormData();
+		formData.left = new FormAttachment(spinnerSecond, 15);
+		formData.top = new FormAttachment(labelAlarmtime, 3);
+		formData.width = 50;
+		formData.height = 20;
+		labelStartOffset.setLayoutData(formData);
+		labelStartOffset.setText("Start at:");
+		
+		spinnerStartOffset = new Spinner(shell, SWT.NONE);
+		formData = new FormData();
+		formData.left = new FormAttachment(labelStartOffset);
+		formData.top = new FormAttachment(labelAlarmtime);
+		formData.width = 40;
+		formData.height = 20;
+		spinnerStartOffset.setMaximum(3600);
+		spinnerStartOffset.setMinimum(0);
+		spinnerStartOffset.setSelection(alarmStartOffset);
+		spinnerStartOffset.setToolTipText("Seconds skipped at the start of the MP3, used by the preview too");
+		spinnerStartOffset.setLayoutData(formData);
+		
 		final Label labelPreview = new Label(shell, SWT.LEFT);
 		formData = new FormData();
 		formData.left = new FormAttachment(100, - (alarmClock.BUTTON_WIDTH * 2 - 20) );
-		formData.top = new FormAttachment(labelMp3Filename, 5);
+		formData.top = new FormAttachment(labelMp3Info, 5);
 		formData.width = 120;
 		formData.height = 20;
 		labelPreview.setLayoutData(formData);
@@ -374,6 +642,9 @@ public class Settings {
 				if (fileToPlay != null) {
 					try {
 						player.setFileToPlay(fileToPlay);
+						player.setStartOffset(spinnerStartOffset.getSelection() * 1000L);
+						player.setPlaylist(null);
+						player.setFadeIn(0);
 						player.addPlaybackListener(new PlaybackListener() {
 							public void playbackStarted(PlaybackEvent e) {
 								Display display = shell.getDisplay();
@@ -393,7 +664,6 @@ public class Settings {
 								
 								display.syncExec(new Runnable() {
 									public void run() {
-										player.playbackFinished();
 										buttonPlay.setEnabled(true);
 										buttonStop.setEnabled(false);
 									}
@@ -461,6 +731,7 @@ public class Settings {
 				alarmHour = spinnerHour.getSelection();
 				alarmMinute = spinnerMinute.getSelection();
 				alarmSecond = spinnerSecond.getSelection();
+				alarmStartOffset = spinnerStartOffset.getSelection();
 				alarmFilename = comboFilename.getText();
 				confirmExit = checkboxExitRequiresConfirmation.getSelection();
 				alarmTimeZone = comboTimezone.getSelectionIndex();
@@ -476,6 +747,7 @@ public class Settings {
 				
 				alarmClock.setNewTimezone();
 				alarmClock.updateAlarmTime(getAlarmHour(), getAlarmMinute(), getAlarmSecond());
+				alarmClock.scheduleAlarm();
 				inSettings = false;
 				shell.close();
 			}
@@ -503,6 +775,7 @@ public class Settings {
 					player.stop();
 				}
 				
+				shell.getDisplay().timerExec(-1, mp3InfoProbe);
 				inSettings = false;
 			}
 		});
@@ -510,6 +783,67 @@ public class Settings {
 		return true;
 	}
 	
+	/**
+	 * Shows title, artist, duration and bitrate of the selected MP3 below the combo.
+	 * The file is probed on the probe thread, so a slow disk doesn't block the
+	 * dialog, and the probe results are cached, so reopening the dialog doesn't read
+	 * the files again.
+	 */
+	private void updateMp3Info() {
+		if (shell == null || shell.isDisposed()) {
+			return;
+		}
+		
+		final String filename = comboFilename.getText();
+		final int generation = ++probeGeneration;
+		final Display display = shell.getDisplay();
+		probeExecutor.execute(new Runnable() {
+			public void run() {
+				if (generation != probeGeneration) {
+					return;
+				}
+				
+				final String info = describeSound(filename);
+				if (display.isDisposed()) {
+					return;
+				}
+				
+				display.asyncExec(new Runnable() {
+					public void run() {
+						if (generation != probeGeneration || labelMp3Info.isDisposed()) {
+							return;
+						}
+						
+						labelMp3Info.setText(info);
+						comboFilename.setToolTipText(info.length() > 0 ? info : null);
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Describes the sound file for the info below the combo
+	 * 
+	 * @param  filename
+	 * @return info, empty when there's no such file
+	 */
+	private static String describeSound(String filename) {
+		if (filename == null || !new File(filename).isFile()) {
+			return "";
+		}
+		
+		if (!PcmSourceFactory.needsDecoding(filename)) {
+			return PcmSourceFactory.isSupported(filename) ? "Uncompressed sound, played without decoding" : "Unsupported file";
+		}
+		
+		try {
+			return Mp3Probe.get(filename).toString();
+		} catch (IOException e) {
+			return "Not an MP3 file";
+		}
+	}
+	
 	/**
 	 * Gets the instance of shell created in open()
 	 * 
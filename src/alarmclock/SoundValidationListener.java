@@ -0,0 +1,18 @@
+package alarmclock;
+
+/**
+ * Receives results of SoundValidator
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public interface SoundValidationListener {
+	/**
+	 * Invoked on the validator thread when the dry run of the file has finished
+	 * or the cached result of an unchanged file has been found
+	 *
+	 * @param filename the validated file
+	 * @param error    why the file cannot be played or null when it plays
+	 */
+	public void soundValidated(String filename, String error);
+}
@@ -0,0 +1,227 @@
+package alarmclock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks ahead of the alarm that its sound file plays: the whole file is decoded
+ * on a background thread and the samples are discarded. Results are kept while
+ * the file keeps its path, size and modification time, so only a changed file
+ * is decoded again. Files which cannot be played are logged to the console.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class SoundValidator {
+	/**
+	 * Number of samples decoded at once
+	 */
+	private static final int CHUNK = 4096;
+
+	/**
+	 * Keepalive of the idle validator thread in seconds
+	 */
+	private static final long KEEPALIVE = 30;
+
+	/**
+	 * Results by path
+	 */
+	private final Map<String, Result> results = new HashMap<String, Result>();
+
+	/**
+	 * Listeners of the files queued or being validated by path
+	 */
+	private final Map<String, List<SoundValidationListener>> pending = new HashMap<String, List<SoundValidationListener>>();
+
+	/**
+	 * Runs the dry runs one by one
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Result of the dry run
+	 */
+	private static class Result {
+		/**
+		 * Size and modification time of the file when it was validated
+		 */
+		final long length;
+		final long lastModified;
+
+		/**
+		 * Why the file cannot be played or null when it plays
+		 */
+		final String error;
+
+		/**
+		 * Creates the result
+		 *
+		 * @param length
+		 * @param lastModified
+		 * @param error
+		 */
+		Result(long length, long lastModified, String error) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Creates the validator, its thread is started with the first validation
+	 */
+	public SoundValidator() {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, KEEPALIVE, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "SoundValidator");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		pool.allowCoreThreadTimeOut(true);
+		executor = pool;
+	}
+
+	/**
+	 * Validates the file on the background thread, the listener gets the cached result
+	 * when the file hasn't changed. When the file is queued already, the listener gets
+	 * the result of the queued validation.
+	 *
+	 * @param filename sound file
+	 * @param listener receives the result
+	 */
+	public void validate(final String filename, final SoundValidationListener listener) {
+		if (filename == null || listener == null) {
+			throw new IllegalArgumentException("Filename and listener cannot be null.");
+		}
+
+		final String key = new File(filename).getAbsolutePath();
+		synchronized (this) {
+			List<SoundValidationListener> listeners = pending.get(key);
+			if (listeners != null) {
+				listeners.add(listener);
+				return;
+			}
+
+			listeners = new ArrayList<SoundValidationListener>();
+			listeners.add(listener);
+			pending.put(key, listeners);
+		}
+
+		executor.execute(new Runnable() {
+			public void run() {
+				String error = null;
+				final List<SoundValidationListener> listeners;
+				try {
+					error = getError(filename);
+				} finally {
+					synchronized (SoundValidator.this) {
+						listeners = pending.remove(key);
+					}
+				}
+
+				for (SoundValidationListener queued : listeners) {
+					queued.soundValidated(filename, error);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the validator thread, queued validations are dropped
+	 */
+	public void dispose() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns why the file cannot be played, the file is decoded when it's not cached or has been changed
+	 *
+	 * @param  filename sound file
+	 * @return error or null when the file plays
+	 */
+	private String getError(String filename) {
+		final File file = new File(filename);
+		Result result = getResult(file);
+		if (result != null) {
+			return result.error;
+		}
+
+		final long length = file.length();
+		final long lastModified = file.lastModified();
+		final String error = decode(filename);
+		if (error != null) {
+			System.out.println("Sound " + filename + " cannot be played: " + error);
+		}
+		result = new Result(length, lastModified, error);
+		synchronized (results) {
+			results.put(file.getAbsolutePath(), result);
+		}
+
+		return error;
+	}
+
+	/**
+	 * Returns the cached result of the file
+	 *
+	 * @param  file
+	 * @return result or null when the file hasn't been validated or has been changed
+	 */
+	private Result getResult(File file) {
+		final Result result;
+		synchronized (results) {
+			result = results.get(file.getAbsolutePath());
+		}
+
+		if (result == null || result.length != file.length() || result.lastModified != file.lastModified()) {
+			return null;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Decodes the whole file and discards the samples
+	 *
+	 * @param  filename sound file
+	 * @return error or null when the file plays
+	 */
+	private static String decode(String filename) {
+		if (!new File(filename).isFile()) {
+			return "File not found";
+		}
+
+		if (!PcmSourceFactory.isSupported(filename)) {
+			return "Unsupported file";
+		}
+
+		IPcmSource source = null;
+		try {
+			source = PcmSourceFactory.open(filename, null);
+			final short[] buffer = new short[CHUNK];
+			long samples = 0;
+			int count;
+			while ((count = source.read(buffer, 0, buffer.length)) >= 0) {
+				samples += count;
+			}
+
+			return (samples == 0) ? "The file contains no sound" : null;
+		} catch (Exception e) {
+			return e.toString();
+		} finally {
+			if (source != null) {
+				source.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package alarmclock;
+
+/**
+ * Receives ticks from TickSource
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public interface TickListener {
+	/**
+	 * Invoked on the tick thread at the start of every wall-clock second
+	 *
+	 * @param time     the second boundary in milliseconds since the epoch
+	 * @param lateness milliseconds the tick has been delivered after the boundary
+	 */
+	public void tick(long time, long lateness);
+}
@@ -0,0 +1,267 @@
+package alarmclock;
+
+/**
+ * Delivers a tick at every wall-clock second boundary. Each wakeup is scheduled
+ * at an absolute deadline, so the time spent in the listener doesn't accumulate
+ * as drift, and the lateness of every tick is recorded. While paused, the thread
+ * sleeps without any wakeup until it's resumed.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class TickSource {
+	/**
+	 * Length of one tick in milliseconds
+	 */
+	private static final long PERIOD = 1000;
+
+	/**
+	 * Receiver of the ticks
+	 */
+	private final TickListener listener;
+
+	/**
+	 * Thread which waits for the second boundaries
+	 */
+	private Thread thread = null;
+
+	/**
+	 * False after stop() has been called
+	 */
+	private boolean running = false;
+
+	/**
+	 * True while no ticks are delivered
+	 */
+	private boolean paused = false;
+
+	/**
+	 * Counter of the thread wakeups or null
+	 */
+	private WakeupCounter wakeupCounter = null;
+
+	/**
+	 * Lateness statistics in milliseconds
+	 */
+	private long tickCount = 0;
+	private long skippedTicks = 0;
+	private long lastLateness = 0;
+	private long maxLateness = 0;
+	private long totalLateness = 0;
+
+	/**
+	 * Creates the tick source
+	 *
+	 * @param listener receiver of the ticks
+	 */
+	public TickSource(TickListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener cannot be null.");
+		}
+
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts the tick thread
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			throw new IllegalStateException("Tick source already started.");
+		}
+
+		running = true;
+		thread = new Thread("TickSource") {
+			public void run() {
+				runLoop();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the tick thread
+	 */
+	public synchronized void stop() {
+		running = false;
+		notifyAll();
+	}
+
+	/**
+	 * Pauses or resumes delivery of ticks, the first tick after resume comes
+	 * at the next second boundary
+	 *
+	 * @param paused
+	 */
+	public synchronized void setPaused(boolean paused) {
+		this.paused = paused;
+		notifyAll();
+	}
+
+	/**
+	 * Returns true while no ticks are delivered
+	 *
+	 * @return paused
+	 */
+	public synchronized boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * Sets the counter of the thread wakeups
+	 *
+	 * @param wakeupCounter or null
+	 */
+	public synchronized void setWakeupCounter(WakeupCounter wakeupCounter) {
+		this.wakeupCounter = wakeupCounter;
+	}
+
+	/**
+	 * Returns number of delivered ticks
+	 *
+	 * @return ticks
+	 */
+	public synchronized long getTickCount() {
+		return tickCount;
+	}
+
+	/**
+	 * Returns number of second boundaries which passed while the listener was busy
+	 *
+	 * @return ticks
+	 */
+	public synchronized long getSkippedTicks() {
+		return skippedTicks;
+	}
+
+	/**
+	 * Returns lateness of the last tick
+	 *
+	 * @return milliseconds
+	 */
+	public synchronized long getLastLateness() {
+		return lastLateness;
+	}
+
+	/**
+	 * Returns the worst lateness since the statistics were reset
+	 *
+	 * @return milliseconds
+	 */
+	public synchronized long getMaxLateness() {
+		return maxLateness;
+	}
+
+	/**
+	 * Returns the average lateness since the statistics were reset
+	 *
+	 * @return milliseconds
+	 */
+	public synchronized double getAverageLateness() {
+		return (tickCount == 0) ? 0 : (double)totalLateness / tickCount;
+	}
+
+	/**
+	 * Resets the lateness statistics
+	 */
+	public synchronized void resetStatistics() {
+		tickCount = 0;
+		skippedTicks = 0;
+		lastLateness = 0;
+		maxLateness = 0;
+		totalLateness = 0;
+	}
+
+	/**
+	 * Waits for the second boundaries and notifies the listener
+	 */
+	private void runLoop() {
+		long deadline = (System.currentTimeMillis() / PERIOD + 1) * PERIOD;
+		while (true) {
+			final long lateness;
+			synchronized (this) {
+				long now;
+				while (true) {
+					if (!running) {
+						return;
+					}
+
+					if (paused) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+
+						countWakeup();
+						deadline = (System.currentTimeMillis() / PERIOD + 1) * PERIOD;
+						continue;
+					}
+
+					now = System.currentTimeMillis();
+					if (now >= deadline) {
+						break;
+					}
+
+					/**
+					 * The wall clock has been set back by more than one tick
+					 */
+					if (deadline - now > PERIOD) {
+						deadline = (now / PERIOD + 1) * PERIOD;
+					}
+
+					try {
+						wait(deadline - now);
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					countWakeup();
+				}
+
+				lateness = now - deadline;
+				recordTick(lateness);
+			}
+
+			listener.tick(deadline, lateness);
+
+			/**
+			 * Next boundary, the ones passed while the listener was busy are skipped
+			 */
+			deadline += PERIOD;
+			final long now = System.currentTimeMillis();
+			if (now >= deadline) {
+				final long next = (now / PERIOD + 1) * PERIOD;
+				synchronized (this) {
+					skippedTicks += (next - deadline) / PERIOD;
+				}
+
+				deadline = next;
+			}
+		}
+	}
+
+	/**
+	 * Records a wakeup of the thread, it's called while holding the monitor
+	 */
+	private void countWakeup() {
+		if (wakeupCounter != null) {
+			wakeupCounter.wakeup();
+		}
+	}
+
+	/**
+	 * Updates the lateness statistics, it's called while holding the monitor
+	 *
+	 * @param lateness milliseconds
+	 */
+	private void recordTick(long lateness) {
+		tickCount++;
+		lastLateness = lateness;
+		totalLateness += lateness;
+		if (lateness > maxLateness) {
+			maxLateness = lateness;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package alarmclock;
+
+import java.util.TimeZone;
+
+/**
+ * Formats time as HH:mm:ss into a reused char buffer without any allocation.
+ * The zone offset is cached for a quarter of an hour, zone transitions happen
+ * on quarter-hour boundaries. The string for the label is created only when
+ * the text has changed. Instances are not thread-safe.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class TimeFormatter {
+	/**
+	 * How long the cached zone offset is valid in milliseconds
+	 */
+	private static final long OFFSET_WINDOW = 15 * 60 * 1000;
+
+	/**
+	 * Formatted text
+	 */
+	private final char[] buffer = { '0', '0', ':', '0', '0', ':', '0', '0' };
+
+	/**
+	 * Zone of the formatted time and its offset cached for [offsetFrom, offsetFrom + OFFSET_WINDOW)
+	 */
+	private TimeZone timezone;
+	private long offset = 0;
+	private long offsetFrom = Long.MIN_VALUE;
+
+	/**
+	 * Second of day currently in buffer, -1 when the buffer is not valid
+	 */
+	private int secondOfDay = -1;
+
+	/**
+	 * String of the buffer or null when it hasn't been created yet
+	 */
+	private String text = null;
+
+	/**
+	 * Creates the formatter
+	 *
+	 * @param timezone zone of the formatted time
+	 */
+	public TimeFormatter(TimeZone timezone) {
+		setTimeZone(timezone);
+	}
+
+	/**
+	 * Sets the zone of the formatted time
+	 *
+	 * @param timezone
+	 */
+	public void setTimeZone(TimeZone timezone) {
+		if (timezone == null) {
+			throw new IllegalArgumentException("Timezone cannot be null.");
+		}
+
+		this.timezone = timezone;
+		offsetFrom = Long.MIN_VALUE;
+		secondOfDay = -1;
+	}
+
+	/**
+	 * Formats the time into the buffer
+	 *
+	 * @param  time milliseconds since the epoch
+	 * @return true when the text has changed
+	 */
+	public boolean format(long time) {
+		if (time < offsetFrom || time >= offsetFrom + OFFSET_WINDOW) {
+			offsetFrom = time - (time % OFFSET_WINDOW + OFFSET_WINDOW) % OFFSET_WINDOW;
+			offset = timezone.getOffset(offsetFrom);
+		}
+
+		final long seconds = (time + offset) / 1000 - ((time + offset) % 1000 < 0 ? 1 : 0);
+		final int second = (int)((seconds % 86400 + 86400) % 86400);
+		if (second == secondOfDay) {
+			return false;
+		}
+
+		secondOfDay = second;
+		text = null;
+		putTwoDigits(0, second / 3600);
+		putTwoDigits(3, second / 60 % 60);
+		putTwoDigits(6, second % 60);
+		return true;
+	}
+
+	/**
+	 * Returns the buffer with the formatted time, it's valid until the next format()
+	 *
+	 * @return 8 characters HH:mm:ss
+	 */
+	public char[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns the formatted time as string, the string is created once per change
+	 *
+	 * @return HH:mm:ss
+	 */
+	public String getText() {
+		if (text == null) {
+			text = new String(buffer);
+		}
+
+		return text;
+	}
+
+	/**
+	 * Writes two decimal digits to the buffer
+	 *
+	 * @param position
+	 * @param value    0-99
+	 */
+	private void putTwoDigits(int position, int value) {
+		buffer[position] = (char)('0' + value / 10);
+		buffer[position + 1] = (char)('0' + value % 10);
+	}
+}
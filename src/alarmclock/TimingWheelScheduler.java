@@ -0,0 +1,248 @@
+package alarmclock;
+
+import java.util.List;
+
+/**
+ * Hashed hierarchical timing wheel with seconds, minutes, hours and days levels.
+ * Adding and cancelling an alarm is O(1): every alarm is linked into a bucket
+ * of the wheel and is moved one level down when the wheel reaches its bucket.
+ * Alarms further than the days level can hold are kept in an overflow bucket.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class TimingWheelScheduler extends AbstractAlarmScheduler {
+	/**
+	 * Length of one tick in milliseconds
+	 */
+	private static final long TICK = 1000;
+
+	/**
+	 * Number of buckets and the length of one bucket (in ticks) of each level
+	 */
+	private static final int[]  LEVEL_SIZE = { 60, 60, 24, 64 };
+	private static final long[] LEVEL_SPAN = { 1, 60, 3600, 86400 };
+
+	/**
+	 * Index of the first bucket of each level, followed by the overflow and due buckets
+	 */
+	private static final int[] LEVEL_OFFSET = { 0, 60, 120, 144 };
+	private static final int OVERFLOW = 208;
+	private static final int DUE = 209;
+
+	/**
+	 * Heads of the doubly linked lists of all buckets
+	 */
+	private final Alarm[] buckets = new Alarm[DUE + 1];
+
+	/**
+	 * Number of alarms linked into the seconds level and into all levels
+	 */
+	private int secondsCount = 0;
+	private int count = 0;
+
+	/**
+	 * The last tick the wheel has been advanced to
+	 */
+	private long currentTick = System.currentTimeMillis() / TICK;
+
+	public synchronized int size() {
+		return count;
+	}
+
+	protected void enqueue(Alarm alarm) {
+		link(alarm, bucketOf(alarm));
+		count++;
+	}
+
+	protected boolean dequeue(Alarm alarm) {
+		if (alarm.wheelBucket < 0) {
+			return false;
+		}
+
+		unlink(alarm);
+		count--;
+		return true;
+	}
+
+	protected Alarm pollDue(long now) {
+		advance(now / TICK);
+		final Alarm alarm = buckets[DUE];
+		if (alarm != null) {
+			unlink(alarm);
+			count--;
+		}
+
+		return alarm;
+	}
+
+	protected void drainTo(List<Alarm> alarms, long now) {
+		for (int bucket = 0; bucket < buckets.length; bucket++) {
+			while (buckets[bucket] != null) {
+				final Alarm alarm = buckets[bucket];
+				unlink(alarm);
+				alarms.add(alarm);
+			}
+		}
+
+		count = 0;
+		currentTick = now / TICK;
+	}
+
+	protected long nextWakeup(long now) {
+		if (count == 0) {
+			return Long.MAX_VALUE;
+		}
+
+		if (buckets[DUE] != null) {
+			return now;
+		}
+
+		/**
+		 * The nearest non-empty bucket of the seconds level or the next
+		 * minute boundary when the upper levels have to be cascaded
+		 */
+		long wakeup = Long.MAX_VALUE;
+		if (count > secondsCount) {
+			wakeup = (currentTick / 60 + 1) * 60 * TICK;
+		}
+
+		if (secondsCount > 0) {
+			for (int i = 1; i < LEVEL_SIZE[0]; i++) {
+				if (buckets[(int)((currentTick + i) % LEVEL_SIZE[0])] != null) {
+					wakeup = Math.min(wakeup, (currentTick + i) * TICK);
+					break;
+				}
+			}
+		}
+
+		return wakeup;
+	}
+
+	/**
+	 * Moves the wheel to the specified tick, cascading upper levels
+	 * and moving reached buckets of the seconds level to the due bucket
+	 *
+	 * @param tick
+	 */
+	private void advance(long tick) {
+		if (count == 0) {
+			currentTick = Math.max(currentTick, tick);
+			return;
+		}
+
+		while (currentTick < tick) {
+			currentTick++;
+			if (currentTick % LEVEL_SPAN[3] == 0) {
+				if ((currentTick / LEVEL_SPAN[3]) % LEVEL_SIZE[3] == 0) {
+					cascade(OVERFLOW);
+				}
+
+				cascade(bucketIndex(3, currentTick));
+			}
+
+			if (currentTick % LEVEL_SPAN[2] == 0) {
+				cascade(bucketIndex(2, currentTick));
+			}
+
+			if (currentTick % LEVEL_SPAN[1] == 0) {
+				cascade(bucketIndex(1, currentTick));
+			}
+
+			cascade(bucketIndex(0, currentTick));
+		}
+	}
+
+	/**
+	 * Relinks all alarms of the bucket according to the current tick
+	 *
+	 * @param bucket
+	 */
+	private void cascade(int bucket) {
+		Alarm alarm = buckets[bucket];
+		while (alarm != null) {
+			final Alarm next = alarm.wheelNext;
+			unlink(alarm);
+			link(alarm, bucketOf(alarm));
+			alarm = next;
+		}
+	}
+
+	/**
+	 * Finds the bucket where the alarm belongs with respect to the current tick
+	 *
+	 * @param  alarm
+	 * @return index of bucket
+	 */
+	private int bucketOf(Alarm alarm) {
+		final long tick = (alarm.getDeadline() + TICK - 1) / TICK;
+		if (tick <= currentTick) {
+			return DUE;
+		}
+
+		for (int level = 0; level < LEVEL_SIZE.length; level++) {
+			if (tick / LEVEL_SPAN[level] - currentTick / LEVEL_SPAN[level] < LEVEL_SIZE[level]) {
+				return bucketIndex(level, tick);
+			}
+		}
+
+		return OVERFLOW;
+	}
+
+	/**
+	 * Returns the bucket of the level which covers the tick
+	 *
+	 * @param  level
+	 * @param  tick
+	 * @return index of bucket
+	 */
+	private static int bucketIndex(int level, long tick) {
+		return LEVEL_OFFSET[level] + (int)((tick / LEVEL_SPAN[level]) % LEVEL_SIZE[level]);
+	}
+
+	/**
+	 * Inserts the alarm at the head of the bucket
+	 *
+	 * @param alarm
+	 * @param bucket
+	 */
+	private void link(Alarm alarm, int bucket) {
+		final Alarm head = buckets[bucket];
+		alarm.wheelPrev = null;
+		alarm.wheelNext = head;
+		if (head != null) {
+			head.wheelPrev = alarm;
+		}
+
+		buckets[bucket] = alarm;
+		alarm.wheelBucket = bucket;
+		if (bucket < LEVEL_OFFSET[1]) {
+			secondsCount++;
+		}
+	}
+
+	/**
+	 * Removes the alarm from its bucket
+	 *
+	 * @param alarm
+	 */
+	private void unlink(Alarm alarm) {
+		if (alarm.wheelPrev == null) {
+			buckets[alarm.wheelBucket] = alarm.wheelNext;
+		} else {
+			alarm.wheelPrev.wheelNext = alarm.wheelNext;
+		}
+
+		if (alarm.wheelNext != null) {
+			alarm.wheelNext.wheelPrev = alarm.wheelPrev;
+		}
+
+		if (alarm.wheelBucket < LEVEL_OFFSET[1]) {
+			secondsCount--;
+		}
+
+		alarm.wheelPrev = null;
+		alarm.wheelNext = null;
+		alarm.wheelBucket = -1;
+	}
+}
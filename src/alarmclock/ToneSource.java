@@ -0,0 +1,86 @@
+package alarmclock;
+
+/**
+ * Endless beeping generated from a precomputed table, it's played when the
+ * alarm file cannot start. A beep is a whole number of sine periods, so it
+ * starts and ends at zero without clicks.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class ToneSource implements IPcmSource {
+	/**
+	 * Sample rate of the tone
+	 */
+	public static final int SAMPLE_RATE = 44100;
+
+	/**
+	 * Samples of one period of the sine, 882 Hz at SAMPLE_RATE
+	 */
+	private static final int PERIOD_LENGTH = 50;
+
+	/**
+	 * Length of a beep and of the silence after it in samples (about 0.25 s)
+	 */
+	private static final int BEEP_LENGTH = PERIOD_LENGTH * 220;
+	private static final int PAUSE_LENGTH = BEEP_LENGTH;
+
+	/**
+	 * One period of the sine at half of the full scale
+	 */
+	private static final short[] PERIOD = new short[PERIOD_LENGTH];
+
+	static {
+		for (int i = 0; i < PERIOD_LENGTH; i++) {
+			PERIOD[i] = (short)Math.round(Math.sin(2 * Math.PI * i / PERIOD_LENGTH) * Short.MAX_VALUE / 2);
+		}
+	}
+
+	/**
+	 * Position in the beep and pause cycle
+	 */
+	private int position = 0;
+
+	public int getSampleRate() {
+		return SAMPLE_RATE;
+	}
+
+	public int getChannels() {
+		return 1;
+	}
+
+	public int read(short[] buffer, int offset, int length) {
+		int read = 0;
+		while (read < length) {
+			if (position < BEEP_LENGTH) {
+				final int start = position % PERIOD_LENGTH;
+				final int count = Math.min(length - read, Math.min(PERIOD_LENGTH - start, BEEP_LENGTH - position));
+				System.arraycopy(PERIOD, start, buffer, offset + read, count);
+				position += count;
+				read += count;
+			} else {
+				final int count = Math.min(length - read, BEEP_LENGTH + PAUSE_LENGTH - position);
+				for (int i = 0; i < count; i++) {
+					buffer[offset + read + i] = 0;
+				}
+
+				position += count;
+				read += count;
+			}
+
+			if (position == BEEP_LENGTH + PAUSE_LENGTH) {
+				position = 0;
+			}
+		}
+
+		return read;
+	}
+
+	public void seek(long millis) {
+		position = (int)(Math.max(0, millis) * SAMPLE_RATE / 1000 % (BEEP_LENGTH + PAUSE_LENGTH));
+	}
+
+	public void close() {
+		// nothing to release
+	}
+}
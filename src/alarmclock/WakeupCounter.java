@@ -0,0 +1,86 @@
+package alarmclock;
+
+/**
+ * Counts wakeups of the background threads separately while the main shell is
+ * visible and while it's hidden in the tray, together with the time spent in
+ * each mode, so the rate of wakeups per hour can be checked for both of them.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class WakeupCounter {
+	/**
+	 * Modes of the application
+	 */
+	public static final int VISIBLE = 0;
+	public static final int HIDDEN  = 1;
+
+	/**
+	 * Wakeups and nanoseconds spent in each mode
+	 */
+	private final long[] wakeups = new long[2];
+	private final long[] elapsed = new long[2];
+
+	/**
+	 * Current mode and the monotonic time it has been entered
+	 */
+	private int mode = VISIBLE;
+	private long modeSince = System.nanoTime();
+
+	/**
+	 * Records one wakeup in the current mode
+	 */
+	public synchronized void wakeup() {
+		wakeups[mode]++;
+	}
+
+	/**
+	 * Switches the mode
+	 *
+	 * @param mode VISIBLE or HIDDEN
+	 */
+	public synchronized void setMode(int mode) {
+		if (mode != VISIBLE && mode != HIDDEN) {
+			throw new IllegalArgumentException("Unknown mode " + mode);
+		}
+
+		final long now = System.nanoTime();
+		elapsed[this.mode] += now - modeSince;
+		modeSince = now;
+		this.mode = mode;
+	}
+
+	/**
+	 * Returns the current mode
+	 *
+	 * @return VISIBLE or HIDDEN
+	 */
+	public synchronized int getMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns number of wakeups recorded in the mode
+	 *
+	 * @param  mode VISIBLE or HIDDEN
+	 * @return wakeups
+	 */
+	public synchronized long getWakeups(int mode) {
+		return wakeups[mode];
+	}
+
+	/**
+	 * Returns the average number of wakeups per hour spent in the mode
+	 *
+	 * @param  mode VISIBLE or HIDDEN
+	 * @return wakeups per hour or 0 when no time has been spent in the mode
+	 */
+	public synchronized double getWakeupsPerHour(int mode) {
+		long nanos = elapsed[mode];
+		if (mode == this.mode) {
+			nanos += System.nanoTime() - modeSince;
+		}
+
+		return (nanos <= 0) ? 0 : wakeups[mode] * 3600e9 / nanos;
+	}
+}
@@ -0,0 +1,144 @@
+package alarmclock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that an alarm whose deadline passed while the application wasn't
+ * running is replayed after a restart. The state of the previous run, an enabled
+ * alarm which fired yesterday, is written to a temporary file and loaded again
+ * the way AlarmClock does at startup. The occurrence two hours ago then has to
+ * be delivered by the scheduler according to the catch-up policy.
+ *
+ * Exits with status 1 when a check fails.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class CatchUpCheck {
+	/**
+	 * How long the scheduler is given to deliver the missed occurrence
+	 */
+	private static final long TIMEOUT = 5000;
+
+	/**
+	 * How long the application was down after the missed deadline
+	 */
+	private static final long DOWNTIME = 2 * 3600000L;
+
+	/**
+	 * Runs the checks
+	 *
+	 * @param  args unused
+	 * @throws IOException when the temporary state file cannot be created
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final TimeZone timezone = TimeZone.getDefault();
+		final long now = System.currentTimeMillis();
+		final Calendar calendar = Calendar.getInstance(timezone);
+		calendar.setTimeInMillis(now - DOWNTIME);
+		final RecurrenceRule rule = RecurrenceRule.daily(calendar.get(Calendar.HOUR_OF_DAY),
+			calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND));
+		final long missedDeadline = rule.nextOccurrence(now - DOWNTIME - 1000, timezone);
+
+		final File file = File.createTempFile("alarmstate", ".xml");
+		file.delete();
+		try {
+			/**
+			 * The previous run, the alarm fired yesterday and the user left it enabled
+			 */
+			final AlarmState previous = new AlarmState(file.getPath());
+			previous.setEnabled(true);
+			previous.setLastFired(missedDeadline - 86400000L);
+
+			/**
+			 * The restart
+			 */
+			final AlarmState restored = new AlarmState(file.getPath());
+			Checks.check(restored.isEnabled(), "the enabled state is restored");
+			Checks.check(restored.getLastFired() == missedDeadline - 86400000L, "the last fired deadline is restored");
+
+			final long resume = restored.getResumeTime(System.currentTimeMillis());
+			Checks.check(resume == restored.getLastFired(), "the deadlines are resolved from the last fired one");
+
+			final Alarm alarm = new Alarm("alarm.mp3", rule, timezone);
+			final long deadline = alarm.nextDeadline(resume);
+			Checks.check(deadline == missedDeadline, "the first deadline is the one missed while the application was down");
+
+			Checks.check(deliver(rule, timezone, deadline, CatchUpPolicy.FIRE, 0), "FIRE plays the missed alarm");
+			Checks.check(deliver(rule, timezone, deadline, CatchUpPolicy.GRACE, 2 * DOWNTIME), "GRACE plays the missed alarm within the window");
+			Checks.check(!deliver(rule, timezone, deadline, CatchUpPolicy.GRACE, DOWNTIME / 2), "GRACE skips the missed alarm out of the window");
+			Checks.check(!deliver(rule, timezone, deadline, CatchUpPolicy.SKIP, 0), "SKIP skips the missed alarm");
+
+			/**
+			 * Disabling the alarm has to survive a restart as well
+			 */
+			restored.setEnabled(false);
+			Checks.check(!new AlarmState(file.getPath()).isEnabled(), "the disabled state is restored");
+
+			/**
+			 * Deadlines which passed while the alarm was disabled aren't replayed once it's enabled again
+			 */
+			restored.setEnabled(true, now);
+			Checks.check(new AlarmState(file.getPath()).getResumeTime(now + 1) == now,
+				"enabling the alarm doesn't replay the deadlines missed while it was disabled");
+
+			/**
+			 * Without a state the alarm starts from now and nothing is replayed
+			 */
+			Checks.check(new AlarmState(new File(file.getPath() + ".missing").getPath()).getResumeTime(now) == now,
+				"a missing state resolves the deadlines from now");
+		} finally {
+			file.delete();
+		}
+
+		Checks.finish();
+	}
+
+	/**
+	 * Schedules the missed deadline and waits for the scheduler to deliver it
+	 *
+	 * @param  rule
+	 * @param  timezone
+	 * @param  deadline    deadline in the past
+	 * @param  policy
+	 * @param  graceWindow
+	 * @return true when the alarm fired, false when it was missed
+	 * @throws InterruptedException
+	 */
+	private static boolean deliver(RecurrenceRule rule, TimeZone timezone, long deadline,
+			CatchUpPolicy policy, long graceWindow) throws InterruptedException {
+		final Alarm alarm = new Alarm("alarm.mp3", rule, timezone);
+		alarm.setCatchUpPolicy(policy, graceWindow);
+
+		final CountDownLatch delivered = new CountDownLatch(1);
+		final boolean[] fired = new boolean[1];
+		final AlarmScheduler scheduler = new AlarmScheduler();
+		scheduler.addAlarmListener(new AlarmListener() {
+			public void alarmFired(Alarm alarm, long deadline) {
+				fired[0] = true;
+				delivered.countDown();
+			}
+
+			public void alarmMissed(Alarm alarm, long deadline) {
+				delivered.countDown();
+			}
+		});
+		scheduler.schedule(alarm, deadline);
+		scheduler.start();
+		try {
+			if (!delivered.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+				throw new IllegalStateException("The missed alarm wasn't delivered.");
+			}
+		} finally {
+			scheduler.shutdown();
+		}
+
+		return fired[0];
+	}
+}
@@ -0,0 +1,50 @@
+package alarmclock;
+
+/**
+ * Results of the checks run by one main(): every check prints its result and
+ * finish() prints the summary and exits with status 1 when a check failed.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public final class Checks {
+	/**
+	 * Number of failed checks
+	 */
+	private static int failures = 0;
+
+	/**
+	 * Empty private constructor to prevent instantiation
+	 */
+	private Checks() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Prints the result of one check
+	 *
+	 * @param  passed
+	 * @param  description
+	 * @return passed
+	 */
+	public static boolean check(boolean passed, String description) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + description);
+		if (!passed) {
+			failures++;
+		}
+
+		return passed;
+	}
+
+	/**
+	 * Prints the summary, exits with status 1 when a check failed
+	 */
+	public static void finish() {
+		if (failures > 0) {
+			System.out.println(failures + " check(s) failed");
+			System.exit(1);
+		}
+
+		System.out.println("All checks passed");
+	}
+}
@@ -0,0 +1,159 @@
+package alarmclock;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executor;
+
+/**
+ * Measures the CPU cost of mixing a voice, i.e. PcmPipeline.mix() called by the
+ * output task of PcmMixer, with and without the fade-in of GainRamp. The voices
+ * play the built-in tone (see ToneSource), their decoder tasks run on the calling
+ * thread, so the cost of reading the tone is measured alone first and the
+ * difference is the cost of the mix. Every configuration mixes the same number
+ * of frames in chunks of the mixer, the fade-in lasts longer than the run, so
+ * every chunk is ramped.
+ *
+ * Usage: MixBenchmark [seconds of audio per configuration]
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class MixBenchmark {
+	/**
+	 * Frames mixed at once, as PcmMixer does, and the channels of the line
+	 */
+	private static final int CHUNK_FRAMES = 1024;
+	private static final int CHANNELS = 2;
+
+	/**
+	 * Seconds of audio mixed per configuration when no argument is given
+	 */
+	private static final int DEFAULT_SECONDS = 600;
+
+	/**
+	 * Rounds of every measurement, the first one warms up
+	 */
+	private static final int ROUNDS = 3;
+
+	/**
+	 * Runs the decoder tasks on the calling thread
+	 */
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable task) {
+			task.run();
+		}
+	};
+
+	/**
+	 * Thread measurements
+	 */
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Keeps the mixed samples reachable, so the mixing cannot be optimized away
+	 */
+	private static long checksum = 0;
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param args seconds of audio per configuration, 600 by default
+	 */
+	public static void main(String[] args) {
+		final int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+		final long frames = (long)seconds * ToneSource.SAMPLE_RATE;
+		final long fadeIn = seconds * 2000L;
+
+		System.out.println("Mixing " + seconds + " s of the tone per configuration");
+		System.out.println("configuration                 voices  cpu ns/frame  mix ns/frame  x realtime");
+		for (int round = 0; round < ROUNDS; round++) {
+			final boolean print = (round == ROUNDS - 1);
+			final double read = measureRead(frames);
+			if (print) {
+				System.out.println(String.format("%-28s  %6d  %12.2f  %12s  %10.0f", "ToneSource.read only", 1, read, "-",
+					1e9 / ToneSource.SAMPLE_RATE / read));
+			}
+
+			measureMix("unity gain", 1, 1, null, ToneSource.SAMPLE_RATE, frames, read, print);
+			measureMix("gain 0.5", 1, 0.5f, null, ToneSource.SAMPLE_RATE, frames, read, print);
+			measureMix("gain 0.5 + fade-in", 1, 0.5f, fadeIn, ToneSource.SAMPLE_RATE, frames, read, print);
+			measureMix("gain 0.5 + fade-in", 4, 0.5f, fadeIn, ToneSource.SAMPLE_RATE, frames, read, print);
+			measureMix("gain 0.5 + fade-in, 48 kHz", 1, 0.5f, fadeIn, 48000, frames, read, print);
+		}
+	}
+
+	/**
+	 * Measures reading the tone in chunks of the decoder
+	 *
+	 * @param  frames number of frames to read
+	 * @return CPU nanoseconds per frame
+	 */
+	private static double measureRead(long frames) {
+		final ToneSource source = new ToneSource();
+		final short[] buffer = new short[4096];
+		final long start = getCpuTime();
+		for (long read = 0; read < frames; ) {
+			final int count = source.read(buffer, 0, buffer.length);
+			checksum += buffer[count - 1];
+			read += count;
+		}
+
+		return (double)(getCpuTime() - start) / frames;
+	}
+
+	/**
+	 * Mixes the voices and prints the cost of one frame of the line
+	 *
+	 * @param name
+	 * @param voices  number of voices mixed together
+	 * @param gain
+	 * @param fadeIn  milliseconds or null without fade-in
+	 * @param outRate sample rate of the line
+	 * @param frames  number of frames of the line
+	 * @param read    CPU nanoseconds of reading one frame of a voice
+	 * @param print   false for the warm-up rounds
+	 */
+	private static void measureMix(String name, int voices, float gain, Long fadeIn, int outRate, long frames,
+			double read, boolean print) {
+		final PcmPipeline[] pipelines = new PcmPipeline[voices];
+		for (int i = 0; i < voices; i++) {
+			pipelines[i] = new PcmPipeline(new ToneSource(), DIRECT);
+			pipelines[i].setGain(gain);
+			if (fadeIn != null) {
+				pipelines[i].setGainRamp(new GainRamp(fadeIn));
+			}
+		}
+
+		final int[] mix = new int[CHUNK_FRAMES * CHANNELS];
+		final long start = getCpuTime();
+		for (long mixed = 0; mixed < frames; mixed += CHUNK_FRAMES) {
+			for (PcmPipeline pipeline : pipelines) {
+				if (pipeline.mix(mix, CHUNK_FRAMES, outRate, CHANNELS) < CHUNK_FRAMES) {
+					throw new IllegalStateException("The tone ran out of decoded samples.");
+				}
+			}
+
+			checksum += mix[mix.length - 1];
+		}
+
+		final double cpu = (double)(getCpuTime() - start) / frames;
+		for (PcmPipeline pipeline : pipelines) {
+			pipeline.stop();
+		}
+
+		if (print) {
+			final double source = read * voices * ToneSource.SAMPLE_RATE / outRate;
+			System.out.println(String.format("%-28s  %6d  %12.2f  %12.2f  %10.0f", name, voices, cpu, cpu - source,
+				1e9 / outRate / cpu));
+		}
+	}
+
+	/**
+	 * Returns CPU time consumed by the current thread or the wall clock when it's unknown
+	 *
+	 * @return nanoseconds
+	 */
+	private static long getCpuTime() {
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+}
@@ -0,0 +1,110 @@
+package alarmclock;
+
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that an alarm with a recurrence rule stays enabled after it goes off,
+ * so the scheduler delivers its following occurrence as well, while the alarm
+ * set by its time only is disabled after the first one. The alarm is handled
+ * the way AlarmClock does: occurrences are dropped once the alarm is disabled.
+ * A local time repeated when DST ends has to resolve to its first instant.
+ *
+ * Exits with status 1 when a check fails.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class RecurrenceCheck {
+	/**
+	 * How long the scheduler is given to deliver two occurrences of a rule firing every second
+	 */
+	private static final long TIMEOUT = 5000;
+
+	/**
+	 * Runs the checks
+	 *
+	 * @param  args unused
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final TimeZone timezone = TimeZone.getDefault();
+		final RecurrenceRule everySecond = new RecurrenceRule("* * * * * *");
+		Checks.check(everySecond.isRepeating(), "a recurrence rule is repeating");
+		Checks.check(new RecurrenceRule("0 30 6 * * MON-FRI").isRepeating(), "a weekday rule is repeating");
+		Checks.check(fire(everySecond, timezone) == 2, "a recurring alarm fires twice in a row");
+
+		/**
+		 * The alarm set by its time only has the occurrences of the daily rule, but it's disabled after the first one
+		 */
+		final RecurrenceRule once = RecurrenceRule.once(6, 30, 0);
+		final RecurrenceRule daily = RecurrenceRule.daily(6, 30, 0);
+		final long now = System.currentTimeMillis();
+		Checks.check(!once.isRepeating(), "the alarm set by its time only isn't repeating");
+		Checks.check(once.nextOccurrence(now, timezone) == daily.nextOccurrence(now, timezone),
+			"the alarm set by its time only goes off at the daily occurrence");
+		Checks.check(!new Alarm("alarm.mp3", once, timezone).isEquivalent("alarm.mp3", daily, timezone),
+			"switching to a recurrence rule reschedules the alarm");
+
+		/**
+		 * 02:30 occurs twice in Prague on 27 October 2024, at 00:30 UTC (CEST) and 01:30 UTC (CET)
+		 */
+		final TimeZone prague = TimeZone.getTimeZone("Europe/Prague");
+		final RecurrenceRule night = new RecurrenceRule("0 30 2 * * *");
+		final long fallBack = 1729987200000L;
+		Checks.check(night.nextOccurrence(fallBack, prague) == fallBack + 1800000L,
+			"a repeated local time resolves to its first instant");
+		Checks.check(night.nextOccurrence(fallBack + 1800000L, prague) == fallBack + 86400000L + 5400000L,
+			"the repeated instant of a fired local time is skipped");
+
+		/**
+		 * 02:30 doesn't occur in Prague on 31 March 2024, the clock moves from 02:00 CET to 03:00 CEST
+		 */
+		final long springForward = 1711843200000L;
+		Checks.check(night.nextOccurrence(springForward, prague) == springForward + 5400000L,
+			"a skipped local time moves forward by the skipped hour");
+
+		Checks.finish();
+	}
+
+	/**
+	 * Schedules the alarm and handles its occurrences the way AlarmClock does
+	 * until two of them have been handled or the timeout elapses
+	 *
+	 * @param  rule
+	 * @param  timezone
+	 * @return number of handled occurrences
+	 * @throws InterruptedException
+	 */
+	private static int fire(RecurrenceRule rule, TimeZone timezone) throws InterruptedException {
+		final Alarm alarm = new Alarm("alarm.mp3", rule, timezone);
+		final CountDownLatch handled = new CountDownLatch(2);
+		final boolean[] disabled = new boolean[1];
+		final AlarmScheduler scheduler = new AlarmScheduler();
+		scheduler.addAlarmListener(new AlarmListener() {
+			public void alarmFired(Alarm firedAlarm, long deadline) {
+				if (disabled[0]) {
+					return;
+				}
+
+				handled.countDown();
+				if (!firedAlarm.getRule().isRepeating()) {
+					disabled[0] = true;
+				}
+			}
+
+			public void alarmMissed(Alarm missedAlarm, long deadline) {
+			}
+		});
+		scheduler.schedule(alarm, alarm.nextDeadline(System.currentTimeMillis()));
+		scheduler.start();
+		try {
+			handled.await(TIMEOUT, TimeUnit.MILLISECONDS);
+		} finally {
+			scheduler.shutdown();
+		}
+
+		return 2 - (int)handled.getCount();
+	}
+}
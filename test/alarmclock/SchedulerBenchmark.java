@@ -0,0 +1,118 @@
+package alarmclock;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Compares AlarmScheduler (binary heap) with TimingWheelScheduler. For every
+ * population the alarms are scheduled at random deadlines within a week, a
+ * sample of them is cancelled and scheduled again and finally all of them are
+ * polled as due. The scheduler threads aren't started, the operations run on
+ * the calling thread. Run it with enough heap for the largest population,
+ * about 1 GB for 10M alarms.
+ *
+ * Usage: SchedulerBenchmark [alarms ...]
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class SchedulerBenchmark {
+	/**
+	 * Populations measured when no argument is given
+	 */
+	private static final int[] DEFAULT_SIZES = { 10000, 1000000, 10000000 };
+
+	/**
+	 * Number of alarms cancelled and scheduled again, cancelling from the heap is linear
+	 */
+	private static final int CANCEL_SAMPLE = 1000;
+
+	/**
+	 * Deadlines are spread from an hour to a week ahead
+	 */
+	private static final long MIN_DELAY = 3600000L;
+	private static final long MAX_DELAY = 7 * 86400000L;
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param args populations, the defaults are 10k, 1M and 10M
+	 */
+	public static void main(String[] args) {
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println("scheduler   alarms      schedule ns/op  cancel+add ns  poll ns/op  heap MB");
+		for (int size : sizes) {
+			try {
+				run(new AlarmScheduler(), "heap", size);
+				run(new TimingWheelScheduler(), "wheel", size);
+			} catch (OutOfMemoryError e) {
+				System.out.println(size + " alarms skipped, the heap is too small (use -Xmx)");
+			}
+		}
+	}
+
+	/**
+	 * Measures one scheduler with the population
+	 *
+	 * @param scheduler
+	 * @param name
+	 * @param size      number of alarms
+	 */
+	private static void run(AbstractAlarmScheduler scheduler, String name, int size) {
+		final TimeZone timezone = TimeZone.getDefault();
+		final Random random = new Random(size);
+		final long now = System.currentTimeMillis();
+		Alarm[] alarms = new Alarm[size];
+		final long[] deadlines = new long[size];
+		for (int i = 0; i < size; i++) {
+			alarms[i] = new Alarm("alarm.mp3", null, timezone);
+			deadlines[i] = now + MIN_DELAY + (long)(random.nextDouble() * (MAX_DELAY - MIN_DELAY));
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < size; i++) {
+			scheduler.schedule(alarms[i], deadlines[i]);
+		}
+
+		final long schedule = System.nanoTime() - start;
+		final Runtime runtime = Runtime.getRuntime();
+		runtime.gc();
+		final long heap = runtime.totalMemory() - runtime.freeMemory();
+
+		final int sample = Math.min(size, CANCEL_SAMPLE);
+		start = System.nanoTime();
+		for (int i = 0; i < sample; i++) {
+			final int index = random.nextInt(size);
+			if (scheduler.cancel(alarms[index])) {
+				scheduler.schedule(alarms[index], deadlines[index]);
+			}
+		}
+
+		final long cancel = System.nanoTime() - start;
+
+		alarms = null;
+		int polled = 0;
+		final long end = now + MAX_DELAY + 1000;
+		start = System.nanoTime();
+		synchronized (scheduler) {
+			while (scheduler.pollDue(end) != null) {
+				polled++;
+			}
+		}
+
+		final long poll = System.nanoTime() - start;
+		if (polled != size) {
+			throw new IllegalStateException(name + " polled " + polled + " of " + size + " alarms");
+		}
+
+		System.out.println(String.format("%-11s %-11d %14d %13d %11d %8d", name, size,
+			schedule / size, cancel / sample, poll / size, heap / 1048576));
+	}
+}
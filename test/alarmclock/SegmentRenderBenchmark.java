@@ -0,0 +1,156 @@
+package alarmclock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how rendering an MP3 file into the PCM cache scales with the number
+ * of threads. The file is decoded sequentially by Mp3PcmSource, the way PcmCache
+ * does without a renderer, then Mp3SegmentRenderer writes it to a temporary file
+ * with 1 to N threads, where N is the number of processors by default. Every
+ * row shows the wall time and the speedup over sequential decoding; the
+ * renderer decodes the warm-up frames of every segment twice, so one thread is
+ * a bit slower than sequential decoding.
+ *
+ * Without a file argument a synthetic file is generated (see SyntheticMp3).
+ *
+ * Usage: SegmentRenderBenchmark [file.mp3] [maximum threads]
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class SegmentRenderBenchmark {
+	/**
+	 * Frames of the generated file, about 8.7 minutes
+	 */
+	private static final int GENERATED_FRAMES = 20000;
+
+	/**
+	 * Rounds of every measurement, the first one warms up
+	 */
+	private static final int ROUNDS = 3;
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param  args MP3 file, a generated one when missing or "-", and the maximum number of threads
+	 * @throws IOException when the file couldn't be decoded or a temporary file written
+	 */
+	public static void main(String[] args) throws IOException {
+		final int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) :
+			Runtime.getRuntime().availableProcessors();
+		File generated = null;
+		String filename;
+		if (args.length > 0 && !args[0].equals("-")) {
+			filename = args[0];
+		} else {
+			generated = File.createTempFile("segmentrenderbenchmark", ".mp3");
+			generated.deleteOnExit();
+			SyntheticMp3.write(generated, 1, GENERATED_FRAMES, false);
+			filename = generated.getPath();
+		}
+
+		final File rendered = File.createTempFile("segmentrenderbenchmark", ".pcm");
+		rendered.deleteOnExit();
+		try {
+			System.out.println("Rendering " + filename + " (" + (new File(filename).length() >> 10) + " kB, " +
+				Runtime.getRuntime().availableProcessors() + " processors)");
+			System.out.println("decoding             threads  segments      ms  speedup");
+			for (int round = 0; round < ROUNDS; round++) {
+				final boolean print = (round == ROUNDS - 1);
+				final long sequential = measureSequential(filename);
+				if (print) {
+					System.out.println(String.format("%-19s  %7d  %8s  %6d  %7.2f", "Mp3PcmSource", 1, "-",
+						sequential / 1000000, 1.0));
+				}
+
+				for (int threads = 1; threads <= Math.max(1, maxThreads); threads++) {
+					measureSegments(filename, rendered, threads, sequential, print);
+				}
+			}
+		} finally {
+			rendered.delete();
+			if (generated != null) {
+				generated.delete();
+			}
+		}
+	}
+
+	/**
+	 * Decodes the whole file sequentially
+	 *
+	 * @param  filename
+	 * @return nanoseconds
+	 * @throws IOException when the file couldn't be decoded
+	 */
+	private static long measureSequential(String filename) throws IOException {
+		final short[] buffer = new short[4096];
+		final long start = System.nanoTime();
+		final IPcmSource source = new Mp3PcmSource(filename);
+		try {
+			while (source.read(buffer, 0, buffer.length) >= 0) {
+			}
+		} finally {
+			source.close();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Renders the whole file by segments and prints the time
+	 *
+	 * @param  filename
+	 * @param  rendered   file the samples are written to
+	 * @param  threads    number of threads decoding the segments
+	 * @param  sequential nanoseconds of sequential decoding
+	 * @param  print      false for the warm-up rounds
+	 * @throws IOException when the file couldn't be decoded or the samples written
+	 */
+	private static void measureSegments(String filename, File rendered, int threads, long sequential, boolean print)
+			throws IOException {
+		final ExecutorService executor = createExecutor(threads);
+		try {
+			final long start = System.nanoTime();
+			final Mp3SegmentRenderer renderer = new Mp3SegmentRenderer(filename, executor, threads);
+			final RandomAccessFile output = new RandomAccessFile(rendered, "rw");
+			try {
+				output.setLength(0);
+				renderer.write(output.getChannel());
+			} finally {
+				output.close();
+			}
+
+			final long elapsed = System.nanoTime() - start;
+			if (print) {
+				System.out.println(String.format("%-19s  %7d  %8d  %6d  %7.2f", "Mp3SegmentRenderer", threads,
+					renderer.getSegmentCount(), elapsed / 1000000, (double)sequential / elapsed));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Creates the executor decoding the segments
+	 *
+	 * @param  threads
+	 * @return executor of daemon threads
+	 */
+	private static ExecutorService createExecutor(int threads) {
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+			new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "SegmentRenderBenchmark");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	}
+}
@@ -0,0 +1,182 @@
+package alarmclock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that Mp3SegmentRenderer produces the same samples as sequential
+ * decoding by Mp3PcmSource. Every file is rendered by segments on several
+ * threads into the format of the PCM cache and read back by CachedPcmSource,
+ * then it's decoded sequentially and both are compared sample by sample.
+ *
+ * Without arguments, synthetic files of several segments are generated (see
+ * SyntheticMp3), one of them with ID3 tags and an Info frame. A file given as
+ * an argument may be rejected as damaged by the renderer, PcmCache then
+ * decodes it sequentially, so only different samples are a failure.
+ *
+ * Exits with status 1 when a check fails.
+ *
+ * Usage: SegmentRenderCheck [file.mp3 ...]
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class SegmentRenderCheck {
+	/**
+	 * Seeds, lengths and tags of the generated files, from a single segment and a
+	 * half to several segments with a short last one, and a file with ID3 tags
+	 * and an Info frame
+	 */
+	private static final long[] SEEDS = { 1, 2, 3, 4 };
+	private static final int[] FRAMES = { 400, 1100, 2000, 1100 };
+	private static final boolean[] TAGGED = { false, false, false, true };
+
+	/**
+	 * Threads decoding the segments, at least two so the segments really overlap in time
+	 */
+	private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Runs the checks
+	 *
+	 * @param  args MP3 files, generated ones when missing
+	 * @throws IOException when a temporary file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		final ExecutorService executor = createExecutor(THREADS);
+		try {
+			if (args.length > 0) {
+				for (String filename : args) {
+					compareRendering(filename, executor, false);
+				}
+			} else {
+				for (int i = 0; i < SEEDS.length; i++) {
+					final File file = File.createTempFile("segmentrendercheck", ".mp3");
+					try {
+						SyntheticMp3.write(file, SEEDS[i], FRAMES[i], TAGGED[i]);
+						compareRendering(file.getPath(), executor, true);
+					} finally {
+						file.delete();
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		Checks.finish();
+	}
+
+	/**
+	 * Renders the file both ways and compares the samples
+	 *
+	 * @param  filename
+	 * @param  executor
+	 * @param  wellFormed true when the renderer mustn't reject the file
+	 * @throws IOException when a temporary file cannot be written
+	 */
+	private static void compareRendering(String filename, ExecutorService executor, boolean wellFormed) throws IOException {
+		final File rendered = File.createTempFile("segmentrendercheck", ".pcm");
+		try {
+			String name = new File(filename).getName();
+			final RandomAccessFile output = new RandomAccessFile(rendered, "rw");
+			try {
+				final Mp3SegmentRenderer renderer = new Mp3SegmentRenderer(filename, executor, THREADS);
+				name += " (" + renderer.getSegmentCount() + " segments)";
+				renderer.write(output.getChannel());
+			} catch (IOException e) {
+				Checks.check(!wellFormed, name + ": rejected, " + e.getMessage());
+				return;
+			} finally {
+				output.close();
+			}
+
+			final IPcmSource segmented = new CachedPcmSource(rendered.getPath());
+			final IPcmSource sequential = new Mp3PcmSource(filename);
+			try {
+				final String difference = compare(segmented, sequential);
+				Checks.check(difference == null, name + (difference == null ? ": identical" : ": " + difference));
+			} finally {
+				segmented.close();
+				sequential.close();
+			}
+		} finally {
+			rendered.delete();
+		}
+	}
+
+	/**
+	 * Compares the format and all samples of the sources
+	 *
+	 * @param  segmented
+	 * @param  sequential
+	 * @return description of the first difference or null when the sources are identical
+	 * @throws IOException when a source couldn't be read
+	 */
+	private static String compare(IPcmSource segmented, IPcmSource sequential) throws IOException {
+		if (segmented.getSampleRate() != sequential.getSampleRate() || segmented.getChannels() != sequential.getChannels()) {
+			return "format " + segmented.getSampleRate() + " Hz / " + segmented.getChannels() + " differs from " +
+				sequential.getSampleRate() + " Hz / " + sequential.getChannels();
+		}
+
+		final short[] a = new short[4096];
+		final short[] b = new short[4096];
+		int lengthA = 0;
+		int lengthB = 0;
+		int positionA = 0;
+		int positionB = 0;
+		long sample = 0;
+		while (true) {
+			if (positionA == lengthA) {
+				lengthA = Math.max(-1, segmented.read(a, 0, a.length));
+				positionA = 0;
+			}
+
+			if (positionB == lengthB) {
+				lengthB = Math.max(-1, sequential.read(b, 0, b.length));
+				positionB = 0;
+			}
+
+			if (lengthA < 0 || lengthB < 0) {
+				if (lengthA < 0 && lengthB < 0) {
+					return null;
+				}
+
+				return ((lengthA < 0) ? "segmented" : "sequential") + " output ends first at sample " + sample;
+			}
+
+			while (positionA < lengthA && positionB < lengthB) {
+				if (a[positionA] != b[positionB]) {
+					return "sample " + sample + " is " + a[positionA] + " instead of " + b[positionB];
+				}
+
+				positionA++;
+				positionB++;
+				sample++;
+			}
+		}
+	}
+
+	/**
+	 * Creates the executor decoding the segments
+	 *
+	 * @param  threads
+	 * @return executor of daemon threads
+	 */
+	private static ExecutorService createExecutor(int threads) {
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+			new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "SegmentRenderCheck");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	}
+}
@@ -0,0 +1,250 @@
+package alarmclock;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Header;
+
+/**
+ * Measures the input side of the decoding path. The first part reads the frames
+ * of an MP3 file with JLayer's Bitstream, the way Mp3PcmSource does before
+ * decoding, through MappedInputStream and through the former BufferedInputStream
+ * over FileInputStream, and reports the throughput and the number of read calls
+ * reaching the file, i.e. system calls. The second part moves samples through
+ * PcmRingBuffer between a producer and a consumer thread, the way the decoder
+ * task and the output of PcmPipeline do.
+ *
+ * Without an argument a file of empty frames (MPEG-1 layer III, 128 kbps) is
+ * generated, only the headers matter for reading the frames.
+ *
+ * Usage: StreamBenchmark [file.mp3]
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class StreamBenchmark {
+	/**
+	 * Frame of the generated file: header of MPEG-1 layer III, 128 kbps, 44.1 kHz, no CRC, and its length
+	 */
+	private static final byte[] FRAME_HEADER = { (byte)0xFF, (byte)0xFB, (byte)0x90, (byte)0x00 };
+	private static final int FRAME_LENGTH = 417;
+
+	/**
+	 * Size of the generated file
+	 */
+	private static final int GENERATED_SIZE = 64 << 20;
+
+	/**
+	 * Rounds of every measurement, the first one warms up
+	 */
+	private static final int ROUNDS = 3;
+
+	/**
+	 * Samples moved through the ring buffer, its capacity and the chunks written by
+	 * the producer (a decoded frame) and read by the consumer (a line buffer)
+	 */
+	private static final long RING_SAMPLES = 200000000L;
+	private static final int RING_CAPACITY = 1 << 16;
+	private static final int PRODUCER_CHUNK = 2304;
+	private static final int CONSUMER_CHUNK = 4096;
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param  args MP3 file, a generated one when missing
+	 * @throws IOException
+	 * @throws BitstreamException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, BitstreamException, InterruptedException {
+		File file = null;
+		File generated = null;
+		if (args.length > 0) {
+			file = new File(args[0]);
+		} else {
+			generated = File.createTempFile("streambenchmark", ".mp3");
+			generated.deleteOnExit();
+			generate(generated);
+			file = generated;
+		}
+
+		try {
+			System.out.println("Reading frames of " + file + " (" + (file.length() >> 10) + " kB)");
+			System.out.println("stream                         MB/s  frames  read calls");
+			for (int round = 0; round < ROUNDS; round++) {
+				final boolean print = (round == ROUNDS - 1);
+				measureFrames("MappedInputStream", print, new MappedInputStream(file.getPath()), null);
+
+				final CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+				measureFrames("BufferedInputStream(File...)", print, new BufferedInputStream(counter), counter);
+			}
+		} finally {
+			if (generated != null) {
+				generated.delete();
+			}
+		}
+
+		System.out.println();
+		System.out.println("ring buffer    Msamples/s  producer chunk  consumer chunk");
+		for (int round = 0; round < ROUNDS; round++) {
+			measureRing(round == ROUNDS - 1);
+		}
+	}
+
+	/**
+	 * Writes a file of empty frames
+	 *
+	 * @param  file
+	 * @throws IOException
+	 */
+	private static void generate(File file) throws IOException {
+		final byte[] frame = new byte[FRAME_LENGTH];
+		System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+		final FileOutputStream os = new FileOutputStream(file);
+		try {
+			final byte[] block = new byte[FRAME_LENGTH * 256];
+			for (int i = 0; i < 256; i++) {
+				System.arraycopy(frame, 0, block, i * FRAME_LENGTH, FRAME_LENGTH);
+			}
+
+			for (int written = 0; written < GENERATED_SIZE; written += block.length) {
+				os.write(block);
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Reads all frames of the stream and prints the throughput
+	 *
+	 * @param  name
+	 * @param  print   false for the warm-up rounds
+	 * @param  input   stream which is closed afterwards
+	 * @param  counter counter of the reads reaching the file or null when they aren't counted
+	 * @throws BitstreamException
+	 * @throws IOException
+	 */
+	private static void measureFrames(String name, boolean print, InputStream input, CountingInputStream counter)
+			throws BitstreamException, IOException {
+		final Bitstream bitstream = new Bitstream(input);
+		long frames = 0;
+		long bytes = 0;
+		final long start = System.nanoTime();
+		try {
+			Header header;
+			while ((header = bitstream.readFrame()) != null) {
+				bytes += header.calculate_framesize() + 4;
+				frames++;
+				bitstream.closeFrame();
+			}
+		} finally {
+			bitstream.close();
+		}
+
+		final long elapsed = System.nanoTime() - start;
+		if (print) {
+			System.out.println(String.format("%-28s  %6.0f  %6d  %10s", name, bytes / (elapsed / 1e9) / (1 << 20),
+				frames, (counter == null) ? "0 (mapped)" : String.valueOf(counter.reads)));
+		}
+	}
+
+	/**
+	 * Moves RING_SAMPLES through a ring buffer and prints the throughput
+	 *
+	 * @param  print false for the warm-up rounds
+	 * @throws InterruptedException
+	 */
+	private static void measureRing(boolean print) throws InterruptedException {
+		final PcmRingBuffer ring = new PcmRingBuffer(RING_CAPACITY);
+		final Thread producer = new Thread("StreamBenchmark-producer") {
+			public void run() {
+				final short[] chunk = new short[PRODUCER_CHUNK];
+				for (int i = 0; i < chunk.length; i++) {
+					chunk[i] = (short)i;
+				}
+
+				long remaining = RING_SAMPLES;
+				while (remaining > 0) {
+					int offset = 0;
+					final int length = (int)Math.min(chunk.length, remaining);
+					while (offset < length) {
+						final int written = ring.write(chunk, offset, length - offset);
+						if (written == 0) {
+							Thread.yield();
+						}
+
+						offset += written;
+					}
+
+					remaining -= length;
+				}
+
+				ring.close();
+			}
+		};
+
+		final short[] chunk = new short[CONSUMER_CHUNK];
+		long read = 0;
+		long checksum = 0;
+		final long start = System.nanoTime();
+		producer.start();
+		while (!ring.isFinished()) {
+			final int count = ring.read(chunk, 0, chunk.length);
+			if (count == 0) {
+				Thread.yield();
+				continue;
+			}
+
+			checksum += chunk[count - 1];
+			read += count;
+		}
+
+		final long elapsed = System.nanoTime() - start;
+		producer.join();
+		if (read != RING_SAMPLES) {
+			throw new IllegalStateException("Read " + read + " samples instead of " + RING_SAMPLES + " (" + checksum + ")");
+		}
+
+		if (print) {
+			System.out.println(String.format("PcmRingBuffer  %10.1f  %14d  %14d", read / (elapsed / 1e3),
+				PRODUCER_CHUNK, CONSUMER_CHUNK));
+		}
+	}
+
+	/**
+	 * Counts the read calls passed to the underlying stream
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		/**
+		 * Number of read calls
+		 */
+		private long reads = 0;
+
+		/**
+		 * Creates the stream
+		 *
+		 * @param in
+		 */
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public int read() throws IOException {
+			reads++;
+			return super.read();
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			reads++;
+			return super.read(b, off, len);
+		}
+	}
+}
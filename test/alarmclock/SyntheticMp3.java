@@ -0,0 +1,225 @@
+package alarmclock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes MP3 files of pseudo-random noise for the checks and benchmarks of
+ * the decoding path, no encoder is needed. Every frame is MPEG-1 layer III,
+ * 128 kbps, 44.1 kHz, joint stereo off, with random but well-formed side
+ * information and random main data. The big values region is empty, the
+ * noise is coded by the quadruples of the count1 region, because decoding
+ * random big values could read past the end of the granule (part2_3_length)
+ * into stale data of the decoder. Every frame starts its main data at a
+ * random point of the bit reservoir (main_data_begin), but never before the
+ * end of the main data of the previous frame, so no frame is skipped by the
+ * decoder and the stream decodes the same from any frame once the reservoir
+ * has been refilled.
+ *
+ * A tagged file starts with an ID3v2 tag of padding and an Info frame (the
+ * Xing frame of CBR files written by LAME), which decodes to silence, and
+ * ends with an ID3v1 tag.
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+class SyntheticMp3 {
+	/**
+	 * Header of every frame and the length of the frame
+	 */
+	private static final int HEADER = 0xFFFB9000;
+	private static final int FRAME_LENGTH = 417;
+
+	/**
+	 * Header and side information of a stereo frame
+	 */
+	private static final int SIDE_INFO_END = 4 + 32;
+
+	/**
+	 * Largest main_data_begin
+	 */
+	private static final int MAX_RESERVOIR = 511;
+
+	/**
+	 * Size of the ID3v2 tag including its header and the size of the ID3v1 tag
+	 */
+	private static final int ID3V2_SIZE = 1024;
+	private static final int ID3V1_SIZE = 128;
+
+	/**
+	 * Huffman tables chosen for the regions of big values, tables 4 and 14 don't exist
+	 */
+	private static final int[] TABLES = {1, 2, 3, 5, 6, 7, 8, 9, 10, 11, 12, 13, 15, 16, 17};
+
+	/**
+	 * Not instantiated
+	 */
+	private SyntheticMp3() {
+	}
+
+	/**
+	 * Writes the file
+	 *
+	 * @param  file
+	 * @param  seed   seed of the noise, the same seed gives the same file
+	 * @param  frames number of frames, 1000 frames are about 26 s
+	 * @param  tagged true for the ID3v2 tag and the Info frame before the frames and the ID3v1 tag after them
+	 * @throws IOException when the file couldn't be written
+	 */
+	static void write(File file, long seed, int frames, boolean tagged) throws IOException {
+		final Random random = new Random(seed);
+		final byte[] frame = new byte[FRAME_LENGTH];
+		final FileOutputStream os = new FileOutputStream(file);
+		try {
+			if (tagged) {
+				writeId3v2(os);
+				writeInfoFrame(os, frames);
+			}
+
+			final int[] lengths = new int[4];
+			int reservoir = 0;
+			for (int f = 0; f < frames; f++) {
+				frame[0] = (byte)(HEADER >>> 24);
+				frame[1] = (byte)(HEADER >>> 16);
+				frame[2] = (byte)(HEADER >>> 8);
+				frame[3] = (byte)HEADER;
+
+				/**
+				 * Main data of the granules, at most 350 bytes, always fits the frame itself
+				 */
+				int bits = 0;
+				for (int i = 0; i < lengths.length; i++) {
+					lengths[i] = 200 + random.nextInt(501);
+					bits += lengths[i];
+				}
+
+				final int mainDataBegin = random.nextInt(reservoir + 1);
+				final BitWriter side = new BitWriter(frame, 4);
+				side.put(mainDataBegin, 9);                                            // main_data_begin
+				side.put(0, 3);                                                        // private_bits
+				side.put(random.nextInt(256), 8);                                      // scfsi
+				for (int granule = 0; granule < 2; granule++) {
+					for (int channel = 0; channel < 2; channel++) {
+						side.put(lengths[granule * 2 + channel], 12);                  // part2_3_length
+						side.put(0, 9);                                                // big_values
+						side.put(170 + random.nextInt(30), 8);                         // global_gain
+						side.put(random.nextInt(16), 4);                               // scalefac_compress
+						side.put(0, 1);                                                // window_switching_flag
+						for (int region = 0; region < 3; region++) {
+							side.put(TABLES[random.nextInt(TABLES.length)], 5);       // table_select
+						}
+
+						side.put(random.nextInt(16), 4);                               // region0_count
+						side.put(random.nextInt(8), 3);                                // region1_count
+						side.put(random.nextInt(8), 3);                                // preflag, scalefac_scale, count1table_select
+					}
+				}
+
+				for (int i = SIDE_INFO_END; i < FRAME_LENGTH; i++) {
+					frame[i] = (byte)random.nextInt(256);
+				}
+
+				os.write(frame);
+
+				/**
+				 * Main data left after this frame for the next one
+				 */
+				reservoir = Math.min(MAX_RESERVOIR, mainDataBegin + FRAME_LENGTH - SIDE_INFO_END - (bits + 7) / 8);
+			}
+
+			if (tagged) {
+				final byte[] tag = new byte[ID3V1_SIZE];
+				tag[0] = 'T';
+				tag[1] = 'A';
+				tag[2] = 'G';
+				os.write(tag);
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Writes an ID3v2.3 tag of padding only
+	 *
+	 * @param  os
+	 * @throws IOException
+	 */
+	private static void writeId3v2(FileOutputStream os) throws IOException {
+		final byte[] tag = new byte[ID3V2_SIZE];
+		final int size = ID3V2_SIZE - 10;
+		tag[0] = 'I';
+		tag[1] = 'D';
+		tag[2] = '3';
+		tag[3] = 3;
+		for (int i = 0; i < 4; i++) {
+			tag[6 + i] = (byte)((size >>> (7 * (3 - i))) & 0x7F);
+		}
+
+		os.write(tag);
+	}
+
+	/**
+	 * Writes the Info frame, its side information is empty and it holds the number of frames
+	 *
+	 * @param  os
+	 * @param  frames number of audio frames
+	 * @throws IOException
+	 */
+	private static void writeInfoFrame(FileOutputStream os, int frames) throws IOException {
+		final byte[] frame = new byte[FRAME_LENGTH];
+		final BitWriter writer = new BitWriter(frame, 0);
+		writer.put(HEADER, 32);
+		writer.position = SIDE_INFO_END * 8;
+		writer.put('I', 8);
+		writer.put('n', 8);
+		writer.put('f', 8);
+		writer.put('o', 8);
+		writer.put(1, 32);                                                             // flags, frame count only
+		writer.put(frames, 32);
+		os.write(frame);
+	}
+
+	/**
+	 * Writes bits into a byte array, most significant bit first
+	 */
+	private static class BitWriter {
+		/**
+		 * Destination and the position of the next bit
+		 */
+		private final byte[] bytes;
+		private int position;
+
+		/**
+		 * Creates the writer
+		 *
+		 * @param bytes
+		 * @param offset first byte written
+		 */
+		private BitWriter(byte[] bytes, int offset) {
+			this.bytes = bytes;
+			this.position = offset * 8;
+		}
+
+		/**
+		 * Writes the lowest bits of the value
+		 *
+		 * @param value
+		 * @param count number of bits
+		 */
+		private void put(int value, int count) {
+			for (int i = count - 1; i >= 0; i--) {
+				final int mask = 0x80 >>> (position & 7);
+				if (((value >>> i) & 1) != 0) {
+					bytes[position >>> 3] |= mask;
+				} else {
+					bytes[position >>> 3] &= ~mask;
+				}
+
+				position++;
+			}
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package alarmclock;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Measures the clock display path. The first part compares formatting the
+ * current time with Calendar and String.format, as the clock did before, with
+ * TimeFormatter: time, CPU time and bytes allocated per formatted second. The
+ * second part runs the former sleep(1000) loop and TickSource side by side for
+ * a while, counting thread wakeups with WakeupCounter, the CPU time of both
+ * threads and how many displayed seconds were skipped or repeated. TickSource
+ * is finally paused, the way it's while the shell is hidden in the tray, to
+ * check that it doesn't wake up at all.
+ *
+ * Allocated bytes are reported only by JVMs providing com.sun.management.ThreadMXBean.
+ *
+ * Usage: TickBenchmark [seconds]
+ *
+ * @author --==[FReeZ]==--
+ * @version 1.0
+ */
+public class TickBenchmark {
+	/**
+	 * Number of formatted seconds
+	 */
+	private static final int FORMAT_COUNT = 1000000;
+
+	/**
+	 * Seconds both tick loops run when no argument is given
+	 */
+	private static final int DEFAULT_SECONDS = 20;
+
+	/**
+	 * Thread measurements
+	 */
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Keeps the formatted text reachable, so the formatting cannot be optimized away
+	 */
+	private static int checksum = 0;
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param  args seconds the tick loops run, 20 by default
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+		final TimeZone timezone = TimeZone.getDefault();
+
+		System.out.println("formatter      ns/second  cpu ns/second  bytes/second");
+		for (int round = 0; round < 2; round++) {
+			final boolean print = (round == 1);
+			measureFormat("String.format", print, new Formatting() {
+				public int format(long time) {
+					final Calendar cal = Calendar.getInstance(timezone);
+					cal.setTimeInMillis(time);
+					return String.format("%1$tH:%1$tM:%1$tS", cal).hashCode();
+				}
+			});
+
+			final TimeFormatter formatter = new TimeFormatter(timezone);
+			measureFormat("TimeFormatter", print, new Formatting() {
+				public int format(long time) {
+					return formatter.format(time) ? formatter.getText().hashCode() : 0;
+				}
+			});
+		}
+
+		System.out.println();
+		System.out.println("Running both tick loops for " + seconds + " s");
+		measureTicks(seconds, timezone);
+	}
+
+	/**
+	 * Formatting of one displayed second
+	 */
+	private interface Formatting {
+		/**
+		 * Formats the time
+		 *
+		 * @param  time milliseconds since the epoch
+		 * @return hash of the text
+		 */
+		public int format(long time);
+	}
+
+	/**
+	 * Formats FORMAT_COUNT consecutive seconds and prints the cost of one
+	 *
+	 * @param name
+	 * @param print      false for the warm-up round
+	 * @param formatting
+	 */
+	private static void measureFormat(String name, boolean print, Formatting formatting) {
+		final long base = System.currentTimeMillis() / 1000 * 1000;
+		final long allocatedBefore = getAllocatedBytes();
+		final long cpuBefore = getCpuTime(Thread.currentThread());
+		final long start = System.nanoTime();
+		for (int i = 0; i < FORMAT_COUNT; i++) {
+			checksum += formatting.format(base + i * 1000L);
+		}
+
+		final long elapsed = System.nanoTime() - start;
+		final long cpu = getCpuTime(Thread.currentThread()) - cpuBefore;
+		final long allocated = getAllocatedBytes() - allocatedBefore;
+		if (!print) {
+			return;
+		}
+
+		System.out.println(String.format("%-13s  %9.1f  %13.1f  %12s", name,
+			(double)elapsed / FORMAT_COUNT, (cpuBefore < 0) ? -1.0 : (double)cpu / FORMAT_COUNT,
+			(allocatedBefore < 0) ? "n/a" : String.format("%.1f", (double)allocated / FORMAT_COUNT)));
+	}
+
+	/**
+	 * Runs the sleep(1000) loop and TickSource at once and prints their wakeups
+	 *
+	 * @param  seconds
+	 * @param  timezone
+	 * @throws InterruptedException
+	 */
+	private static void measureTicks(int seconds, TimeZone timezone) throws InterruptedException {
+		final SleepLoop sleepLoop = new SleepLoop(timezone);
+		final WakeupCounter tickWakeups = new WakeupCounter();
+		final SecondTracker tickSeconds = new SecondTracker();
+		final TimeFormatter formatter = new TimeFormatter(timezone);
+		final TickSource tickSource = new TickSource(new TickListener() {
+			public void tick(long time, long lateness) {
+				formatter.format(time);
+				tickSeconds.display(time);
+			}
+		});
+		tickSource.setWakeupCounter(tickWakeups);
+
+		sleepLoop.start();
+		tickSource.start();
+		final Thread tickThread = findThread("TickSource");
+		Thread.sleep(seconds * 1000L);
+
+		final long sleepCpu = getCpuTime(sleepLoop);
+		final long tickCpu = getCpuTime(tickThread);
+		sleepLoop.interrupt();
+		sleepLoop.join();
+
+		System.out.println("loop           wakeups/h  cpu ms  seconds shown  skipped  repeated  avg late ms  max late ms");
+		printTicks("sleep(1000)", sleepLoop.wakeups.getWakeupsPerHour(WakeupCounter.VISIBLE), sleepCpu,
+			sleepLoop.seconds, Double.NaN, -1);
+		printTicks("TickSource", tickWakeups.getWakeupsPerHour(WakeupCounter.VISIBLE), tickCpu,
+			tickSeconds, tickSource.getAverageLateness(), tickSource.getMaxLateness());
+
+		/**
+		 * Hidden in the tray, the tick thread has to sleep without wakeups once
+		 * it has been woken to notice the pause
+		 */
+		tickWakeups.setMode(WakeupCounter.HIDDEN);
+		tickSource.setPaused(true);
+		Thread.sleep(100);
+		final long hiddenBefore = tickWakeups.getWakeups(WakeupCounter.HIDDEN);
+		Thread.sleep(Math.min(seconds, 5) * 1000L);
+		System.out.println("TickSource paused: " + (tickWakeups.getWakeups(WakeupCounter.HIDDEN) - hiddenBefore) +
+			" wakeups in " + Math.min(seconds, 5) + " s");
+		tickSource.stop();
+	}
+
+	/**
+	 * Prints a row of the tick table
+	 *
+	 * @param name
+	 * @param wakeupsPerHour
+	 * @param cpu            nanoseconds or -1 when unknown
+	 * @param tracker
+	 * @param averageLate    NaN when unknown
+	 * @param maxLate        -1 when unknown
+	 */
+	private static void printTicks(String name, double wakeupsPerHour, long cpu, SecondTracker tracker,
+			double averageLate, long maxLate) {
+		System.out.println(String.format("%-13s  %9.0f  %6s  %13d  %7d  %8d  %11s  %11s", name, wakeupsPerHour,
+			(cpu < 0) ? "n/a" : String.format("%.1f", cpu / 1e6), tracker.shown, tracker.skipped, tracker.repeated,
+			Double.isNaN(averageLate) ? "n/a" : String.format("%.2f", averageLate),
+			(maxLate < 0) ? "n/a" : String.valueOf(maxLate)));
+	}
+
+	/**
+	 * The clock loop used before TickSource, it formats the current time and sleeps for a second
+	 */
+	private static class SleepLoop extends Thread {
+		/**
+		 * Wakeups of the loop
+		 */
+		private final WakeupCounter wakeups = new WakeupCounter();
+
+		/**
+		 * Displayed seconds
+		 */
+		private final SecondTracker seconds = new SecondTracker();
+
+		/**
+		 * Zone of the displayed time
+		 */
+		private final TimeZone timezone;
+
+		/**
+		 * Creates the loop
+		 *
+		 * @param timezone
+		 */
+		public SleepLoop(TimeZone timezone) {
+			super("SleepLoop");
+			this.timezone = timezone;
+			setDaemon(true);
+		}
+
+		public void run() {
+			while (true) {
+				final Calendar cal = Calendar.getInstance(timezone);
+				checksum += String.format("%1$tH:%1$tM:%1$tS", cal).hashCode();
+				seconds.display(cal.getTimeInMillis());
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				wakeups.wakeup();
+			}
+		}
+	}
+
+	/**
+	 * Counts the displayed seconds, the ones never displayed and the ones displayed twice
+	 */
+	private static class SecondTracker {
+		/**
+		 * Last displayed second since the epoch or -1
+		 */
+		private long last = -1;
+
+		/**
+		 * Counters
+		 */
+		private volatile long shown = 0;
+		private volatile long skipped = 0;
+		private volatile long repeated = 0;
+
+		/**
+		 * Records a displayed time
+		 *
+		 * @param time milliseconds since the epoch
+		 */
+		public void display(long time) {
+			final long second = time / 1000;
+			shown++;
+			if (last >= 0) {
+				if (second == last) {
+					repeated++;
+				} else if (second > last + 1) {
+					skipped += second - last - 1;
+				}
+			}
+
+			last = second;
+		}
+	}
+
+	/**
+	 * Returns bytes allocated by the current thread
+	 *
+	 * @return bytes or -1 when the JVM doesn't report them
+	 */
+	private static long getAllocatedBytes() {
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threads;
+		return bean.isThreadAllocatedMemorySupported() ?
+			bean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+	}
+
+	/**
+	 * Returns CPU time consumed by the thread
+	 *
+	 * @param  thread or null
+	 * @return nanoseconds or -1 when unknown
+	 */
+	private static long getCpuTime(Thread thread) {
+		if (thread == null || !threads.isThreadCpuTimeSupported()) {
+			return -1;
+		}
+
+		return threads.getThreadCpuTime(thread.getId());
+	}
+
+	/**
+	 * Finds a live thread by its name
+	 *
+	 * @param  name
+	 * @return thread or null
+	 */
+	private static Thread findThread(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (name.equals(thread.getName())) {
+				return thread;
+			}
+		}
+
+		return null;
+	}
+}